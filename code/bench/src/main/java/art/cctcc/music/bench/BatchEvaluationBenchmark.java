@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.bench;
+
+import art.cctcc.music.ga.BatchEvaluation;
+import art.cctcc.music.ga.Evaluation;
+import art.cctcc.music.ga.Individual;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batched evaluations over the whole pool of individuals, against one individual at a time.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEvaluationBenchmark extends RunState {
+
+  @Param({"VoiceIndependence", "ImproperOuterVoices"})
+  public Evaluation evaluation;
+
+  private List<Individual> pool;
+
+  @Setup
+  public void setupPool() {
+
+    this.pool = List.of(this.individuals);
+  }
+
+  @Benchmark
+  public int[] batch() {
+
+    return BatchEvaluation.count(this.evaluation, this.pool);
+  }
+
+  @Benchmark
+  public int[] individual() {
+
+    var counts = new int[this.pool.size()];
+    for (int i = 0; i < counts.length; i++) counts[i] = this.evaluation.count(this.pool.get(i));
+    return counts;
+  }
+}
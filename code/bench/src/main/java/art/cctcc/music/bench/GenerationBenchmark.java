@@ -0,0 +1,104 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.bench;
+
+import art.cctcc.music.ga.CrossoverByChord;
+import art.cctcc.music.ga.MutationByChord;
+import art.cctcc.music.ga.MyGeneticAlgorithm;
+import art.cctcc.music.ga.MyPopulation;
+import art.cctcc.music.ga.MyTournamentSelection;
+import art.cctcc.music.ga.SteadyStatePopulation;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.math3.genetics.Chromosome;
+import org.apache.commons.math3.genetics.Population;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A generation of a population of random individuals, with the rates of {@link
+ * art.cctcc.music.Main}. The offspring of a whole generation are evaluated, as the next one would.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerationBenchmark extends RunState {
+
+  @Param({"1200"})
+  public int population;
+
+  private MyGeneticAlgorithm ga;
+  private MyPopulation current;
+  private SteadyStatePopulation steady;
+
+  @Setup
+  public void setupAlgorithm() {
+
+    var random = this.context.getRandom();
+    this.ga =
+        new MyGeneticAlgorithm(
+            new CrossoverByChord(random, 0.8, 0.3),
+            new MutationByChord(random, 3, this.voice.length()),
+            new MyTournamentSelection(random, 2),
+            0.10,
+            0.75,
+            0.10,
+            random);
+  }
+
+  @Setup(Level.Iteration)
+  public void setupPopulation() {
+
+    this.current = new MyPopulation(this.context, this.population, 0.25, this.chords, this.random);
+    this.current.getFitnesses();
+    this.steady =
+        new SteadyStatePopulation(this.current, SteadyStatePopulation.Replacement.PARENT);
+  }
+
+  /** Elites carried over, i.e. ranking the population. */
+  @Benchmark
+  public MyPopulation populationNextGeneration() {
+
+    return this.current.nextGeneration();
+  }
+
+  /** Selection, crossover and mutation of a whole generation, and fitness of the offspring. */
+  @Benchmark
+  public void algorithmNextGeneration(Blackhole blackhole) {
+
+    for (Chromosome c : this.ga.nextGeneration(this.current))
+      blackhole.consume(c.getFitness());
+  }
+
+  /** As many offspring as a generation, each pair inserted into a steady-state population. */
+  @Benchmark
+  public Population steadyStateNextGeneration() {
+
+    return this.ga.nextGeneration(this.steady);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.bench;
+
+import art.cctcc.music.ga.CrossoverByChord;
+import art.cctcc.music.ga.MutationByChord;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.math3.genetics.Chromosome;
+import org.apache.commons.math3.genetics.ChromosomePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Genetic operators as configured by {@link art.cctcc.music.ga.Explorer}, alone and with the
+ * fitness of their offspring.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperatorBenchmark extends RunState {
+
+  private MutationByChord mutation;
+  private CrossoverByChord crossover;
+
+  @Setup
+  public void setupOperators() {
+
+    this.mutation = new MutationByChord(this.context.getRandom(), 3, this.voice.length());
+    this.crossover = new CrossoverByChord(this.context.getRandom(), 0.8, 0.3);
+  }
+
+  @Benchmark
+  public Chromosome mutate() {
+
+    return this.mutation.mutate(this.nextIndividual());
+  }
+
+  @Benchmark
+  public double mutateAndEvaluate() {
+
+    return this.mutation.mutate(this.nextIndividual()).getFitness();
+  }
+
+  @Benchmark
+  public ChromosomePair crossover() {
+
+    return this.crossover.crossover(this.nextIndividual(), this.nextIndividual());
+  }
+
+  @Benchmark
+  public void crossoverAndEvaluate(Blackhole blackhole) {
+
+    var pair = this.crossover.crossover(this.nextIndividual(), this.nextIndividual());
+    blackhole.consume(pair.getFirst().getFitness());
+    blackhole.consume(pair.getSecond().getFitness());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.bench;
+
+import art.cctcc.music.ga.Evaluation;
+import art.cctcc.music.ga.Individual;
+import art.cctcc.music.ga.Pitch;
+import art.cctcc.music.ga.RunContext;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Chord tests of {@link Pitch} on random chords of each voicing.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PitchBenchmark {
+
+  @Param({"SATB", "SAATTB", "SSAATTBB"})
+  public String voice;
+
+  private List<List<Integer>> chords;
+  private int next;
+
+  @Setup
+  public void setup() {
+
+    var context = new RunContext(this.voice, List.of(Evaluation.values()));
+    var idv = new Individual(context, RunState.POOL, new SplittableRandom(RunState.SEED));
+    this.chords = IntStream.range(0, RunState.POOL).mapToObj(idv::getChord).toList();
+  }
+
+  private List<Integer> nextChord() {
+
+    return this.chords.get(this.next++ & (RunState.POOL - 1));
+  }
+
+  @Benchmark
+  public char triadChordTest() {
+
+    return Pitch.triadChordTest(this.nextChord());
+  }
+
+  @Benchmark
+  public char seventhChordTest() {
+
+    return Pitch.seventhChordTest(this.nextChord());
+  }
+
+  @Benchmark
+  public char getRoot() {
+
+    return Pitch.getRoot(this.nextChord());
+  }
+
+  @Benchmark
+  public boolean isRootPosition() {
+
+    return Pitch.isRootPosition(this.nextChord());
+  }
+
+  @Benchmark
+  public boolean isConsonantChord() {
+
+    return Pitch.isConsonantChord(this.nextChord());
+  }
+
+  @Benchmark
+  public boolean isConsonantChordFromBasso() {
+
+    return Pitch.isConsonantChordFromBasso(this.voice, this.nextChord(), true);
+  }
+}
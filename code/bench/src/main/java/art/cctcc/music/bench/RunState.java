@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.bench;
+
+import art.cctcc.music.ga.Evaluation;
+import art.cctcc.music.ga.FitnessCache;
+import art.cctcc.music.ga.Individual;
+import art.cctcc.music.ga.RandomContext;
+import art.cctcc.music.ga.RunContext;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Individuals of a run for the voicings and chord numbers under benchmark.
+ *
+ * <p>The fitness cache is disabled, so that every evaluation is measured rather than a lookup of
+ * the previous invocation's result. Individuals are taken in turn from a pool large enough to
+ * defeat branch prediction on a single chromosome.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+@State(Scope.Thread)
+public abstract class RunState {
+
+  static final long SEED = 20240101L;
+
+  static final int POOL = 256;
+
+  @Param({"SATB", "SAATTB", "SSAATTBB"})
+  public String voice;
+
+  @Param({"8", "17", "33", "100"})
+  public int chords;
+
+  RunContext context;
+  SplittableRandom random;
+  Individual[] individuals;
+  private int next;
+
+  @Setup
+  public void setupRun() {
+
+    this.context =
+        new RunContext(
+            this.voice, List.of(Evaluation.values()), new RandomContext(SEED), new FitnessCache(0));
+    this.random = new SplittableRandom(SEED);
+    this.context.getRandom().bind(this.random);
+    this.individuals =
+        Stream.generate(() -> new Individual(this.context, this.chords, this.random))
+            .limit(POOL)
+            .toArray(Individual[]::new);
+    // evaluate once, so that offspring derive their fitness from their parents
+    for (var idv : this.individuals) idv.getFitness();
+  }
+
+  Individual nextIndividual() {
+
+    return this.individuals[this.next++ & (POOL - 1)];
+  }
+}
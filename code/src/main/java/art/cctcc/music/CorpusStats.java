@@ -0,0 +1,219 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music;
+
+import static art.cctcc.music.Settings.*;
+import art.cctcc.music.ga.ChordTable;
+import art.cctcc.music.ga.Evaluation;
+import art.cctcc.music.ga.FitnessCache;
+import art.cctcc.music.ga.Individual;
+import art.cctcc.music.ga.RandomContext;
+import art.cctcc.music.ga.RunContext;
+import art.cctcc.music.utils.musicxml.ScoreReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statistics over a corpus of generated scores: voicings, progressions, cadences, and the count
+ * of each evaluation rule. Scores are read in parallel, each into statistics of its own which are
+ * merged afterwards.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class CorpusStats {
+
+  private static final int TOP = 20;
+
+  private int scores;
+  private final List<String> failures = new ArrayList<>();
+  private final Map<String, Integer> voicings = new HashMap<>();
+  private final Map<String, Integer> progressions = new HashMap<>();
+  private final Map<String, Integer> cadences = new HashMap<>();
+  private int cadential;
+  /** Number of scores of each count of each rule. */
+  private final Map<Evaluation, TreeMap<Integer, Integer>> histograms =
+      new EnumMap<>(Evaluation.class);
+
+  public static void main(String... args) throws IOException {
+
+    var folder = args.length > 0 ? Path.of(args[0]) : DATA_FOLDER;
+    read(folder).report().forEach(System.out::println);
+  }
+
+  /**
+   * Read all <code>.musicxml</code> files of a folder in parallel. Files which are not scores of
+   * individuals are counted as failures.
+   *
+   * @param folder folder of scores.
+   * @return statistics of the scores.
+   * @throws IOException if the folder cannot be listed.
+   */
+  public static CorpusStats read(Path folder) throws IOException {
+
+    var contexts = new ConcurrentHashMap<String, RunContext>();
+    var evals = List.of(Evaluation.values());
+    List<Path> files;
+    try (var list = Files.list(folder)) {
+      files = list.filter(f -> f.toString().endsWith(".musicxml")).sorted().toList();
+    }
+    return files.parallelStream()
+        .collect(
+            CorpusStats::new,
+            (stats, file) -> {
+              try {
+                stats.add(
+                    ScoreReader.read(
+                        file,
+                        voice ->
+                            contexts.computeIfAbsent(
+                                voice,
+                                v ->
+                                    new RunContext(
+                                        v, evals, new RandomContext(0), new FitnessCache(0)))));
+              } catch (IOException ex) {
+                stats.failures.add(file.getFileName() + ": " + ex.getMessage());
+              }
+            },
+            CorpusStats::merge);
+  }
+
+  private void add(Individual idv) {
+
+    this.scores++;
+    this.voicings.merge(idv.getVoice(), 1, Integer::sum);
+    this.progressions.merge(idv.getProgression(), 1, Integer::sum);
+    var chord_no = idv.getChordNumber();
+    if (chord_no >= 2) {
+      var progression = idv.getProgression();
+      this.cadences.merge(
+          roman(progression.charAt(chord_no - 1)) + "-" + roman(progression.charAt(chord_no)),
+          1,
+          Integer::sum);
+      if (ChordTable.isCadence(idv.getChordKey(chord_no - 2), idv.getChordKey(chord_no - 1)))
+        this.cadential++;
+    }
+    for (var e : Evaluation.values())
+      this.histograms.computeIfAbsent(e, k -> new TreeMap<>()).merge(e.count(idv), 1, Integer::sum);
+  }
+
+  private void merge(CorpusStats other) {
+
+    this.scores += other.scores;
+    this.failures.addAll(other.failures);
+    other.voicings.forEach((k, v) -> this.voicings.merge(k, v, Integer::sum));
+    other.progressions.forEach((k, v) -> this.progressions.merge(k, v, Integer::sum));
+    other.cadences.forEach((k, v) -> this.cadences.merge(k, v, Integer::sum));
+    this.cadential += other.cadential;
+    other.histograms.forEach(
+        (e, histogram) ->
+            histogram.forEach(
+                (count, n) ->
+                    this.histograms
+                        .computeIfAbsent(e, k -> new TreeMap<>())
+                        .merge(count, n, Integer::sum)));
+  }
+
+  /**
+   * Roman numeral of a progression symbol, with a 7 for seventh chords.
+   *
+   * @param symbol symbol of {@link Individual#getProgression()}.
+   * @return roman numeral.
+   */
+  private static String roman(char symbol) {
+
+    var roman = RomanNumeral.get(Character.toUpperCase(symbol));
+    return Character.isLowerCase(symbol) ? roman + "7" : roman;
+  }
+
+  /**
+   * Report the statistics, listing the most frequent progressions and cadences.
+   *
+   * @return lines of the report.
+   */
+  public List<String> report() {
+
+    var lines = new ArrayList<String>();
+    lines.add("Scores = " + this.scores);
+    lines.add("Failures = " + this.failures.size());
+    this.failures.stream().sorted().forEach(f -> lines.add(" - " + f));
+    lines.add("Voicings:");
+    frequencies(this.voicings, Integer.MAX_VALUE).forEach(lines::add);
+    lines.add(String.format("Progressions (%d distinct):", this.progressions.size()));
+    frequencies(this.progressions, TOP).forEach(lines::add);
+    lines.add(String.format("Final Chords (%d in cadential forms):", this.cadential));
+    frequencies(this.cadences, TOP).forEach(lines::add);
+    lines.add("Counts of Evaluation (count: scores):");
+    this.histograms.forEach(
+        (e, histogram) -> {
+          var line = new StringBuilder(" - " + e + " =");
+          histogram.forEach((count, n) -> line.append(String.format(" %d: %d", count, n)));
+          lines.add(line.toString());
+        });
+    return lines;
+  }
+
+  private static List<String> frequencies(Map<String, Integer> map, int limit) {
+
+    return map.entrySet().stream()
+        .sorted(
+            Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder())
+                .thenComparing(Map.Entry.comparingByKey()))
+        .limit(limit)
+        .map(e -> String.format("%6d %s", e.getValue(), e.getKey()))
+        .toList();
+  }
+
+  public int getScores() {
+
+    return this.scores;
+  }
+
+  public List<String> getFailures() {
+
+    return List.copyOf(this.failures);
+  }
+
+  public Map<String, Integer> getProgressions() {
+
+    return Map.copyOf(this.progressions);
+  }
+
+  public Map<String, Integer> getCadences() {
+
+    return Map.copyOf(this.cadences);
+  }
+
+  /**
+   * Histogram of the counts of a rule.
+   *
+   * @param evaluation rule.
+   * @return number of scores of each count.
+   */
+  public Map<Integer, Integer> getHistogram(Evaluation evaluation) {
+
+    return Map.copyOf(this.histograms.getOrDefault(evaluation, new TreeMap<>()));
+  }
+}
@@ -17,76 +17,154 @@ package art.cctcc.music;
 
 import static art.cctcc.music.Settings.*;
 import static art.cctcc.music.ga.Evaluation.*;
+import art.cctcc.music.ga.Checkpoint;
 import art.cctcc.music.ga.Explorer;
+import art.cctcc.music.ga.IslandModel;
+import art.cctcc.music.ga.RandomContext;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 /**
  * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
  */
 public class Main {
 
-  public static void main(String... args) throws IOException {
+  public static void main(String... args)
+      throws IOException, InterruptedException, ExecutionException {
 
-    var voice = VOICE;
+    var voices = List.of(VOICE);
     var chord_no = CHORD_NO;
     var batch = 1;
+    var threads = 1;
+    var seed = new RandomContext().getSeed();
+    var runs = 1;
+    var islands = 1;
+    Checkpoint checkpoint = null;
 
     if (args.length > 0) {
       System.out.println("args = " + Arrays.toString(args));
 
-      if (args.length < 2 || !args[0].matches("[SATB]+|-") || !args[1].matches("[0-9]+|-"))
-        printHelp();
+      if (args.length < 2
+          || !args[0].matches("[SATB]+(,[SATB]+)*|-")
+          || !args[1].matches("[0-9]+|-")) printHelp();
 
-      voice = args[0].equals("-") ? VOICE : args[0];
+      voices = args[0].equals("-") ? List.of(VOICE) : List.of(args[0].split(","));
       chord_no = args[1].equals("-") ? CHORD_NO : Integer.parseInt(args[1]);
 
       if (args.length > 2 && args[2].matches("[0-9]+")) batch = Integer.parseInt(args[2]);
+      if (args.length > 3 && args[3].matches("[0-9]+")) threads = Integer.parseInt(args[3]);
+      if (args.length > 4 && args[4].matches("-?[0-9]+")) seed = Long.parseLong(args[4]);
+      if (args.length > 5 && args[5].matches("[1-9][0-9]*")) runs = Integer.parseInt(args[5]);
+      if (args.length > 6 && args[6].matches("[1-9][0-9]*")) islands = Integer.parseInt(args[6]);
+      if (args.length > 7) {
+        // a resumed run takes its settings from the checkpoint
+        checkpoint = Checkpoint.read(Path.of(args[7]));
+        voices = List.of(checkpoint.getVoice());
+        chord_no = checkpoint.getChordNumber();
+        seed = checkpoint.getSeed();
+        islands = checkpoint.getIslands();
+        batch = 1;
+      }
     }
 
+    // Each explorer carries its own RunContext, so runs of any voicing may evolve concurrently.
+    var run_chord_no = chord_no;
+    var run_batch = batch;
+    var run_threads = threads;
+    var run_islands = islands;
+    var run_checkpoint = checkpoint;
+    var tasks = new ArrayList<Callable<Void>>();
     for (int i = 0; i < batch; i++) {
-      if (batch > 1) {
-        System.out.println("\n" + "*".repeat(40));
-        System.out.println("*** Explorer #" + i);
-        System.out.println("*".repeat(40));
-      }
-      var explorer =
-          new Explorer(
-              voice,
-              chord_no,
-              1200,
-              0.25,
-              0.10,
-              0.75,
-              0.10,
-              3,
-              voice.length(),
-              List.of(
-                  MelodicSmoothness,
-                  VoiceIndependence,
-                  ImproperOuterVoices,
-                  NotTriadOrSeventhChord,
-                  SuccessiveDissonantChords,
-                  ImproperResolution,
-                  StartWithNonTriad,
-                  ImproperCadentialForm),
-              0.98,
-              1200);
-      explorer.start();
-      explorer.saveScore();
-      explorer.saveData();
+      var id = i;
+      var voice = voices.get(i % voices.size());
+      var run_seed = seed + i;
+      tasks.add(
+          () -> {
+            explore(
+                id,
+                run_batch,
+                voice,
+                run_chord_no,
+                run_threads,
+                run_islands,
+                run_seed,
+                run_checkpoint);
+            return null;
+          });
+    }
+    var executor = Executors.newFixedThreadPool(runs);
+    try {
+      for (var result : executor.invokeAll(tasks)) result.get();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static void explore(
+      int i,
+      int batch,
+      String voice,
+      int chord_no,
+      int threads,
+      int islands,
+      long seed,
+      Checkpoint checkpoint)
+      throws IOException {
+
+    if (batch > 1) {
+      System.out.println("\n" + "*".repeat(40));
+      System.out.println("*** Explorer #" + i + " (" + voice + ")");
+      System.out.println("*".repeat(40));
     }
+    var explorer =
+        new Explorer(
+            voice,
+            chord_no,
+            1200,
+            0.25,
+            0.10,
+            0.75,
+            0.10,
+            3,
+            voice.length(),
+            List.of(
+                MelodicSmoothness,
+                VoiceIndependence,
+                ImproperOuterVoices,
+                NotTriadOrSeventhChord,
+                SuccessiveDissonantChords,
+                ImproperResolution,
+                StartWithNonTriad,
+                ImproperCadentialForm),
+            0.98,
+            1200,
+            seed);
+    explorer.setParallelism(threads);
+    if (islands > 1) explorer.setIslands(islands, 20, 2, IslandModel.Topology.RING);
+    explorer.setCheckpointInterval(CHECKPOINT_INTERVAL);
+    if (checkpoint != null) explorer.resume(checkpoint);
+    explorer.start();
+    explorer.saveScore();
+    explorer.saveData();
   }
 
   private static void printHelp() {
 
     System.out.printf(
         """
-        Args: Voices Chords
+        Args: Voices[,Voices...] Chords [Batch] [Threads] [Seed] [Runs] [Islands] [Checkpoint]
         Ex: "%s %d" -> %dv; %d chords (default)
+            "SATB,SAATTB %d 8 1 - 4" -> 8 runs alternating voicings, 4 at a time
+            "%s %d 1 1 - 1 4" -> 4 islands in a ring, migrating every 20 generations
+            "- - - 4 - - - data/vlga-6x17-<timestamp>.ckpt" -> resume a checkpointed run
         """,
-        VOICE, CHORD_NO, VOICE.length(), CHORD_NO);
+        VOICE, CHORD_NO, VOICE.length(), CHORD_NO, CHORD_NO, VOICE, CHORD_NO);
     System.exit(0);
   }
 }
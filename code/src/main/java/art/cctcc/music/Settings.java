@@ -15,25 +15,34 @@
  */
 package art.cctcc.music;
 
+import art.cctcc.music.ga.GenomeArena;
+import art.cctcc.music.ga.MyPopulation.Duplicates;
+import art.cctcc.music.ga.MyPopulation.Initialization;
 import art.cctcc.music.ga.Pitch;
+import art.cctcc.music.ga.Stagnation;
+import art.cctcc.music.ga.SteadyStatePopulation;
 import static art.cctcc.music.ga.Pitch.*;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.math3.genetics.GeneticAlgorithm;
-import org.apache.commons.math3.random.RandomGenerator;
 
 /**
  * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
  */
 public class Settings {
 
-  public static RandomGenerator R = GeneticAlgorithm.getRandomGenerator();
-
   public static int CHORD_NO = 17;
   public static String VOICE = "SAATTB";
 
   public static final Path DATA_FOLDER = Path.of("data");
+  public static int CHECKPOINT_INTERVAL = 50; // generations, 0 to disable
+  public static Initialization INITIALIZATION = Initialization.UNIFORM; // or RANDOM_WALK
+  public static GenomeArena.Backing ARENA = null; // null for individuals, or packed genomes
+  public static SteadyStatePopulation.Replacement STEADY_STATE = null; // null for generations
+  public static Stagnation.Response STAGNATION = null; // null to evolve on regardless
+  public static int STAGNATION_PATIENCE = 500; // generations without improvement, 0 to ignore
+  public static double MIN_DIVERSITY = 0.0; // share of distinct chromosomes, 0 to ignore
+  public static Duplicates DUPLICATES = null; // null to keep duplicate offspring
 
   public static final Pitch[] Soprano = {G4, A5};
   public static final Pitch[] Alto = {G3, C5};
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.exception.NumberIsTooLargeException;
+import org.apache.commons.math3.exception.util.LocalizedFormats;
+import org.apache.commons.math3.genetics.Chromosome;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Population whose chromosomes are packed in a {@link GenomeArena} rather than held as
+ * individuals, for populations of millions.
+ *
+ * <p>Chromosomes are packed with their fitness and terms as they are added, and unpacked as new
+ * individuals whenever read, e.g. as selected parents, whose offspring then derive their terms
+ * from the packed ones. Selection and elitism only read the packed fitness, and duplicates and
+ * diversity are looked up on the packed genomes. Two arenas are used in turn: the next generation
+ * is written to the arena of the previous one, so a population must not be read once the
+ * generation after its next one has started.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class ArenaPopulation extends MyPopulation {
+
+  private GenomeArena arena;
+  private GenomeArena spare;
+
+  private final List<Chromosome> view = new View();
+
+  public ArenaPopulation(
+      RunContext context,
+      int populationLimit,
+      double elitismRate,
+      int chord_no,
+      SplittableRandom random,
+      Initialization initialization,
+      GenomeArena.Backing backing) {
+
+    this(
+        populationLimit,
+        elitismRate,
+        new GenomeArena(context, chord_no, populationLimit, backing),
+        new GenomeArena(context, chord_no, populationLimit, backing));
+    this.populate(context, chord_no, random, initialization);
+  }
+
+  /**
+   * Pack the chromosomes of a population, e.g. one restored from a checkpoint.
+   *
+   * @param population population of individuals of the run.
+   * @param context run of the individuals.
+   * @param chord_no chord number of the individuals.
+   * @param backing where the arenas are allocated.
+   */
+  public ArenaPopulation(
+      MyPopulation population, RunContext context, int chord_no, GenomeArena.Backing backing) {
+
+    this(
+        population.getPopulationLimit(),
+        population.getElitismRate(),
+        new GenomeArena(context, chord_no, population.getPopulationLimit(), backing),
+        new GenomeArena(context, chord_no, population.getPopulationLimit(), backing));
+    this.addChromosomes(population.getChromosomes());
+  }
+
+  private ArenaPopulation(
+      int populationLimit, double elitismRate, GenomeArena arena, GenomeArena spare) {
+
+    super(populationLimit, elitismRate);
+    this.arena = arena;
+    this.spare = spare;
+  }
+
+  @Override
+  public void addChromosome(Chromosome chromosome) {
+
+    if (this.arena.size() >= this.getPopulationLimit())
+      throw new NumberIsTooLargeException(
+          LocalizedFormats.LIST_OF_CHROMOSOMES_BIGGER_THAN_POPULATION_SIZE,
+          this.arena.size() + 1,
+          this.getPopulationLimit(),
+          false);
+    this.arena.add((Individual) chromosome);
+    this.invalidate();
+  }
+
+  /** Add chromosomes, evaluating those not yet evaluated in blocks before packing them. */
+  @Override
+  public void addChromosomes(Collection<Chromosome> chromosomeColl) {
+
+    BatchEvaluation.evaluate(chromosomeColl);
+    chromosomeColl.forEach(this::addChromosome);
+  }
+
+  @Deprecated
+  @Override
+  public void setChromosomes(List<Chromosome> chromosomes) {
+
+    this.arena.clear();
+    this.addChromosomes(chromosomes);
+  }
+
+  /**
+   * Start the next generation in the spare arena with the elite, in the same order as {@link
+   * MyPopulation#nextGeneration()}, copying packed genomes.
+   */
+  @Override
+  public ArenaPopulation nextGeneration() {
+
+    this.spare.clear();
+    var next =
+        new ArenaPopulation(getPopulationLimit(), getElitismRate(), this.spare, this.arena);
+    var skipped = (int) FastMath.ceil((1.0 - getElitismRate()) * getPopulationSize());
+    var elite = top(this.getFitnesses(), getPopulationSize() - skipped, true);
+    for (int i = elite.length - 1; i >= 0; i--) this.arena.copy(elite[i], next.arena);
+    return next;
+  }
+
+  /**
+   * Replace the least fit chromosomes with migrants, leaving the others in ascending order of
+   * fitness as {@link MyPopulation#immigrate(List)} does.
+   */
+  @Override
+  public void immigrate(List<Chromosome> migrants) {
+
+    var fitness = this.getFitnesses();
+    var order =
+        IntStream.range(0, fitness.length)
+            .boxed()
+            .sorted(Comparator.comparingDouble(i -> fitness[i]))
+            .mapToInt(Integer::intValue)
+            .toArray();
+    this.spare.clear();
+    var replaced = Math.min(migrants.size(), order.length);
+    for (int i = 0; i < order.length; i++)
+      if (i < replaced) this.spare.add((Individual) migrants.get(i));
+      else this.arena.copy(order[i], this.spare);
+    var previous = this.arena;
+    this.arena = this.spare;
+    this.spare = previous;
+    this.invalidate();
+  }
+
+  @Override
+  double[] evaluate() {
+
+    return this.arena.getFitnesses();
+  }
+
+  /** Add a chromosome unless its genome is packed already, looked up without unpacking. */
+  @Override
+  public boolean addDistinct(Chromosome chromosome) {
+
+    if (this.contains(chromosome)) return false;
+    this.addChromosome(chromosome);
+    return true;
+  }
+
+  @Override
+  public boolean contains(Chromosome chromosome) {
+
+    return this.arena.contains((Individual) chromosome);
+  }
+
+  @Override
+  public double getAvgFitness() {
+
+    return IntStream.range(0, this.arena.size())
+        .mapToDouble(this.arena::getFitness)
+        .average()
+        .getAsDouble();
+  }
+
+  @Override
+  public List<Chromosome> getChromosomes() {
+
+    return this.view;
+  }
+
+  @Override
+  protected List<Chromosome> getChromosomeList() {
+
+    return this.view;
+  }
+
+  @Override
+  public int getPopulationSize() {
+
+    return this.arena.size();
+  }
+
+  @Override
+  public Iterator<Chromosome> iterator() {
+
+    return this.view.iterator();
+  }
+
+  @Override
+  public String toString() {
+
+    return this.view.toString();
+  }
+
+  public GenomeArena getArena() {
+
+    return this.arena;
+  }
+
+  /** Read-only list of the chromosomes, unpacked from the current arena. */
+  private final class View extends AbstractList<Chromosome> implements RandomAccess {
+
+    @Override
+    public Chromosome get(int index) {
+
+      if (index < 0 || index >= arena.size()) throw new IndexOutOfBoundsException(index);
+      return arena.get(index);
+    }
+
+    @Override
+    public int size() {
+
+      return arena.size();
+    }
+  }
+}
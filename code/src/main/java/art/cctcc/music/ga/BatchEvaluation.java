@@ -0,0 +1,220 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.apache.commons.math3.genetics.Chromosome;
+
+/**
+ * Evaluation of a block of individuals rule by rule over columns of notes, instead of one
+ * individual at a time.
+ *
+ * <p>The notes of a block are transposed so that each gene index has a column with one lane per
+ * individual. Parallel 5th and 8th and outer voices are counted over whole columns by {@link
+ * BatchKernels}, lane by lane, or on the JDK Vector API when built with the <code>vector</code>
+ * profile and run with <code>--add-modules jdk.incubator.vector</code>. The other rules are
+ * computed per individual as {@link FitnessTerms} does. Either way the terms, and so the fitness,
+ * are the same as evaluated one individual at a time.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public final class BatchEvaluation {
+
+  /** Individuals per block. */
+  public static final int BLOCK = 256;
+
+  private static final BatchKernels KERNELS = kernels();
+
+  private final List<Individual> block;
+  private final RunContext context;
+  private final String voice;
+  private final int chords;
+
+  /** Note at gene index <code>g</code> of the individual in lane <code>i</code>. */
+  private final int[][] columns;
+
+  /**
+   * @param block individuals of the same voicing and chord number.
+   */
+  private BatchEvaluation(List<Individual> block) {
+
+    this.block = List.copyOf(block);
+    var first = this.block.get(0);
+    this.context = first.getContext();
+    this.voice = first.getVoice();
+    this.chords = first.getChordNumber();
+    this.columns = new int[first.getLength()][this.block.size()];
+    for (int i = 0; i < this.block.size(); i++) {
+      var idv = this.block.get(i);
+      if (!idv.getVoice().equals(this.voice) || idv.getLength() != this.columns.length)
+        throw new IllegalArgumentException(
+            "BatchEvaluation: Mixed voicing or chord number in " + idv.getVoice());
+      var genes = idv.genes();
+      for (int g = 0; g < genes.length; g++) this.columns[g][i] = genes[g];
+    }
+  }
+
+  private static BatchKernels kernels() {
+
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+      try {
+        return (BatchKernels)
+            Class.forName(BatchKernels.class.getPackageName() + ".VectorKernels")
+                .getDeclaredConstructor()
+                .newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        // built without the vector profile, fall back to scalar kernels
+      }
+    return BatchKernels.Scalar.INSTANCE;
+  }
+
+  /**
+   * Check if rules are counted on vector lanes.
+   *
+   * @return true if the vector kernels are built and the Vector API is available.
+   */
+  public static boolean isVectorized() {
+
+    return !(KERNELS instanceof BatchKernels.Scalar);
+  }
+
+  /**
+   * Check if a rule is counted over columns rather than per individual.
+   *
+   * @param eval rule to check.
+   * @return true for voice independence and outer voices.
+   */
+  public static boolean isBatched(Evaluation eval) {
+
+    return eval == Evaluation.VoiceIndependence || eval == Evaluation.ImproperOuterVoices;
+  }
+
+  /**
+   * Count violations of a rule on each individual, as {@link Evaluation#count(Individual)} does.
+   *
+   * @param eval rule to count.
+   * @param individuals individuals of the same voicing and chord number.
+   * @return count of each individual, in the same order.
+   */
+  public static int[] count(Evaluation eval, List<Individual> individuals) {
+
+    var counts = new int[individuals.size()];
+    if (!isBatched(eval)) {
+      for (int i = 0; i < counts.length; i++) counts[i] = eval.count(individuals.get(i));
+      return counts;
+    }
+    for (int from = 0; from < counts.length; from += BLOCK) {
+      var batch =
+          new BatchEvaluation(individuals.subList(from, Math.min(from + BLOCK, counts.length)));
+      var block = new int[batch.block.size()];
+      for (int pos = 0; pos < batch.chords; pos++) batch.addTerms(eval, pos, block);
+      System.arraycopy(block, 0, counts, from, block.length);
+    }
+    return counts;
+  }
+
+  /**
+   * Compute the terms of the individuals which would otherwise compute them on the whole
+   * chromosome, see {@link Individual#needsTerms()}, in blocks of successive individuals of the
+   * same run and chord number.
+   *
+   * @param chromosomes chromosomes to evaluate.
+   */
+  static void evaluate(Collection<? extends Chromosome> chromosomes) {
+
+    var block = new ArrayList<Individual>(BLOCK);
+    for (var chromosome : chromosomes)
+      if (chromosome instanceof Individual idv && idv.needsTerms()) {
+        if (!block.isEmpty()
+            && (block.size() == BLOCK
+                || block.get(0).getContext() != idv.getContext()
+                || block.get(0).getLength() != idv.getLength())) {
+          new BatchEvaluation(block).computeTerms();
+          block.clear();
+        }
+        block.add(idv);
+      }
+    if (!block.isEmpty()) new BatchEvaluation(block).computeTerms();
+  }
+
+  /** Compute the terms of all rules of the run and set them to the individuals. */
+  private void computeTerms() {
+
+    var evals = this.context.getEvals();
+    var offsets = this.context.getTermOffsets();
+    var width = offsets[evals.size()];
+    var rows = new int[this.block.size()][this.chords * width];
+    var counts = new int[this.block.size()];
+    for (int e = 0; e < evals.size(); e++) {
+      var eval = evals.get(e);
+      if (isBatched(eval))
+        for (int pos = 0; pos < this.chords; pos++) {
+          Arrays.fill(counts, 0);
+          this.addTerms(eval, pos, counts);
+          for (int i = 0; i < counts.length; i++) rows[i][pos * width + offsets[e]] = counts[i];
+        }
+      else
+        for (int i = 0; i < rows.length; i++) {
+          var genes = this.block.get(i).genes();
+          for (int pos = 0; pos < this.chords; pos++)
+            eval.computeTerms(
+                genes, this.voice, this.chords, pos, rows[i], pos * width + offsets[e]);
+        }
+    }
+    for (int i = 0; i < rows.length; i++)
+      this.block.get(i).setTerms(FitnessTerms.of(this.context, this.chords, rows[i]));
+  }
+
+  /**
+   * Add the terms of a batched rule at a chord position to the count of each lane.
+   *
+   * @param eval rule, see {@link #isBatched}.
+   * @param pos chord position.
+   * @param counts count of each lane.
+   */
+  private void addTerms(Evaluation eval, int pos, int[] counts) {
+
+    var n = this.voice.length();
+    var size = this.block.size();
+    switch (eval) {
+      case VoiceIndependence -> {
+        if (pos == 0) return;
+        for (int i = 0; i < n - 1; i++)
+          for (int j = i + 1; j < n; j++) {
+            var isOuters =
+                this.voice.charAt(i) == 'S' && this.voice.charAt(j) == 'B'
+                    || this.voice.charAt(i) == 'B' && this.voice.charAt(j) == 'S';
+            KERNELS.parallels(
+                this.columns[(pos - 1) * n + i],
+                this.columns[(pos - 1) * n + j],
+                this.columns[pos * n + i],
+                this.columns[pos * n + j],
+                isOuters,
+                counts,
+                0,
+                size);
+          }
+      }
+      case ImproperOuterVoices ->
+          KERNELS.outerVoices(this.columns, pos * n, this.voice, counts, 0, size);
+      default ->
+          throw new IllegalArgumentException("BatchEvaluation: Unbatched evaluation " + eval);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+/**
+ * Rules of one chord position evaluated over columns of notes, one lane per individual, as used by
+ * {@link BatchEvaluation}. Counts are added to <code>counts[from]</code> to <code>counts[to - 1]
+ * </code>, lanes of the same range of the columns.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+interface BatchKernels {
+
+  /**
+   * Count parallel 5th and 8th between two voices arriving at a chord, as in {@link
+   * Evaluation#voiceIndependenceCheck}.
+   *
+   * @param p1 notes of the first voice in the previous chord.
+   * @param p2 notes of the second voice in the previous chord.
+   * @param m1 notes of the first voice in the chord.
+   * @param m2 notes of the second voice in the chord.
+   * @param isOuters true if applying outer voices ruleset.
+   * @param counts counts to add to.
+   * @param from first lane.
+   * @param to lane after the last one.
+   */
+  void parallels(
+      int[] p1, int[] p2, int[] m1, int[] m2, boolean isOuters, int[] counts, int from, int to);
+
+  /**
+   * Count soprano voices not on the top and bass voices not at the bottom of a chord, as in {@link
+   * Evaluation#improperOuterVoiceCount}.
+   *
+   * @param columns notes of each gene index.
+   * @param offset gene index of the first voice of the chord.
+   * @param voice voice types.
+   * @param counts counts to add to.
+   * @param from first lane.
+   * @param to lane after the last one.
+   */
+  void outerVoices(int[][] columns, int offset, String voice, int[] counts, int from, int to);
+
+  /** One lane at a time, also finishing the lanes left over by vector kernels. */
+  final class Scalar implements BatchKernels {
+
+    static final Scalar INSTANCE = new Scalar();
+
+    @Override
+    public void parallels(
+        int[] p1, int[] p2, int[] m1, int[] m2, boolean isOuters, int[] counts, int from, int to) {
+
+      for (int i = from; i < to; i++) {
+        var s1 = m1[i] % 7;
+        var s2 = m2[i] % 7;
+        if (s1 == 3 && s2 == 6 || s1 == 6 && s2 == 3) continue;
+        var currItvl = Math.abs(m2[i] - m1[i]) % 7;
+        if (currItvl != 0 && currItvl != 4) continue;
+        var prevItvl = Math.abs(p2[i] - p1[i]) % 7;
+        var motion = (m2[i] - p2[i]) * (m1[i] - p1[i]);
+        if (prevItvl == currItvl && motion != 0 || isOuters && motion > 0) counts[i]++;
+      }
+    }
+
+    @Override
+    public void outerVoices(
+        int[][] columns, int offset, String voice, int[] counts, int from, int to) {
+
+      var n = voice.length();
+      for (int i = from; i < to; i++) {
+        var top = columns[offset][i];
+        var bottom = top;
+        for (int v = 1; v < n; v++) {
+          top = Math.max(top, columns[offset + v][i]);
+          bottom = Math.min(bottom, columns[offset + v][i]);
+        }
+        for (int v = 0; v < n; v++)
+          if (voice.charAt(v) == 'S' && columns[offset + v][i] != top
+              || voice.charAt(v) == 'B' && columns[offset + v][i] != bottom) counts[i]++;
+      }
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.math3.genetics.InvalidRepresentationException;
+
+/**
+ * Snapshot of a run between two generations, from which it continues exactly as it would have.
+ *
+ * <p>Random streams are derived from the seed and the generation number, see {@link
+ * RandomContext#forGeneration(long)}, so the seed, the generation counter and the chromosomes in
+ * population order are all the state a run needs. Pitch ordinals are stored in a byte each, with
+ * the fitness of each chromosome to verify the evaluations on resuming, and the whole file is
+ * compressed. The log is not stored: its lines are appended to the text file of the run as
+ * checkpoints are taken, and only the number of lines belonging to the snapshot is recorded.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public final class Checkpoint {
+
+  private static final int MAGIC = 0x564c4741; // "VLGA"
+  private static final int VERSION = 2;
+
+  private final String voice;
+  private final int chord_no;
+  private final int populationLimit;
+  private final long seed;
+  private final long timestamp;
+  private final int logLines;
+  /** Generations evolved by each island, or by the single population. */
+  private final int[] generations;
+  /** Population limit of each island, as grown or shrunk on stagnation. */
+  private final int[] limits;
+  /** Genes of each chromosome of each island, in population order. */
+  private final int[][][] genes;
+  private final double[][] fitnesses;
+
+  private Checkpoint(
+      String voice,
+      int chord_no,
+      int populationLimit,
+      long seed,
+      long timestamp,
+      int logLines,
+      int[] generations,
+      int[] limits,
+      int[][][] genes,
+      double[][] fitnesses) {
+
+    this.voice = voice;
+    this.chord_no = chord_no;
+    this.populationLimit = populationLimit;
+    this.seed = seed;
+    this.timestamp = timestamp;
+    this.logLines = logLines;
+    this.generations = generations;
+    this.limits = limits;
+    this.genes = genes;
+    this.fitnesses = fitnesses;
+  }
+
+  /**
+   * Take a snapshot of evaluated populations. Chromosomes are immutable, so only the fitness
+   * arrays are copied, as a steady-state population updates its own in place, and the snapshot
+   * may be written on another thread while evolution goes on.
+   *
+   * @param populationLimit population limit of the whole run.
+   * @param seed seed of the run.
+   * @param timestamp timestamp naming the files of the run.
+   * @param logLines number of log lines up to the snapshot.
+   * @param generations generations evolved by each population.
+   * @param populations populations of {@link Individual}s of one voicing and chord number.
+   * @return snapshot.
+   */
+  static Checkpoint of(
+      int populationLimit,
+      long seed,
+      long timestamp,
+      int logLines,
+      int[] generations,
+      List<MyPopulation> populations) {
+
+    var first = (Individual) populations.get(0).getChromosomes().get(0);
+    return new Checkpoint(
+        first.getVoice(),
+        first.getChordNumber(),
+        populationLimit,
+        seed,
+        timestamp,
+        logLines,
+        generations.clone(),
+        populations.stream().mapToInt(MyPopulation::getPopulationLimit).toArray(),
+        populations.stream()
+            .map(
+                p ->
+                    p.getChromosomes().stream()
+                        .map(c -> ((Individual) c).genes())
+                        .toArray(int[][]::new))
+            .toArray(int[][][]::new),
+        populations.stream().map(p -> p.getFitnesses().clone()).toArray(double[][]::new));
+  }
+
+  /**
+   * Write the snapshot to a temporary file which then replaces the checkpoint, so that a crash
+   * while writing leaves the previous checkpoint intact.
+   *
+   * @param path checkpoint file.
+   * @throws IOException if the file cannot be written.
+   */
+  void write(Path path) throws IOException {
+
+    var temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (var out =
+        new DataOutputStream(
+            new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(this.voice);
+      out.writeInt(this.chord_no);
+      out.writeInt(this.populationLimit);
+      out.writeLong(this.seed);
+      out.writeLong(this.timestamp);
+      out.writeInt(this.logLines);
+      out.writeInt(this.genes.length);
+      for (int k = 0; k < this.genes.length; k++) {
+        out.writeInt(this.generations[k]);
+        out.writeInt(this.limits[k]);
+        out.writeInt(this.genes[k].length);
+        for (int i = 0; i < this.genes[k].length; i++) {
+          for (var pitch : this.genes[k][i]) out.writeByte(pitch);
+          out.writeDouble(this.fitnesses[k][i]);
+        }
+      }
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Read a checkpoint.
+   *
+   * @param path checkpoint file.
+   * @return snapshot.
+   * @throws IOException if the file cannot be read or is not a valid checkpoint.
+   */
+  public static Checkpoint read(Path path) throws IOException {
+
+    try (var in =
+        new DataInputStream(
+            new GZIPInputStream(new BufferedInputStream(Files.newInputStream(path))))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new IOException("Checkpoint: Unsupported file " + path);
+      var voice = in.readUTF();
+      var chord_no = in.readInt();
+      var populationLimit = in.readInt();
+      var seed = in.readLong();
+      var timestamp = in.readLong();
+      var logLines = in.readInt();
+      var islands = in.readInt();
+      var generations = new int[islands];
+      var limits = new int[islands];
+      var genes = new int[islands][][];
+      var fitnesses = new double[islands][];
+      for (int k = 0; k < islands; k++) {
+        generations[k] = in.readInt();
+        limits[k] = in.readInt();
+        var size = in.readInt();
+        if (size > limits[k])
+          throw new IOException("Checkpoint: Population beyond its limit in " + path);
+        genes[k] = new int[size][voice.length() * chord_no];
+        fitnesses[k] = new double[size];
+        for (int i = 0; i < size; i++) {
+          for (int j = 0; j < genes[k][i].length; j++) genes[k][i][j] = in.readUnsignedByte();
+          fitnesses[k][i] = in.readDouble();
+          Individual.checkValidity(voice, genes[k][i]);
+        }
+      }
+      return new Checkpoint(
+          voice,
+          chord_no,
+          populationLimit,
+          seed,
+          timestamp,
+          logLines,
+          generations,
+          limits,
+          genes,
+          fitnesses);
+    } catch (InvalidRepresentationException ex) {
+      throw new IOException("Checkpoint: Invalid chromosome in " + path, ex);
+    }
+  }
+
+  /**
+   * Rebuild the population of an island with its own population limit, which may differ from an
+   * even share of the run's if stagnation resized it, verifying the fitness of each chromosome.
+   *
+   * @param island island index, 0 for a single population.
+   * @param context run context of the island.
+   * @param elitismRate elitism rate of the run.
+   * @return population in its original order.
+   * @throws IOException if a fitness differs from the stored one, i.e. the evaluations changed.
+   */
+  MyPopulation restore(int island, RunContext context, double elitismRate) throws IOException {
+
+    var population = new MyPopulation(this.limits[island], elitismRate);
+    for (var g : this.genes[island]) population.addChromosome(new Individual(context, g.clone()));
+    var restored = population.getFitnesses();
+    for (int i = 0; i < restored.length; i++)
+      if (Double.compare(restored[i], this.fitnesses[island][i]) != 0)
+        throw new IOException(
+            String.format(
+                "Checkpoint: Fitness %f of chromosome %d differs from %f, evaluations changed",
+                restored[i], i, this.fitnesses[island][i]));
+    return population;
+  }
+
+  public String getVoice() {
+
+    return this.voice;
+  }
+
+  public int getChordNumber() {
+
+    return this.chord_no;
+  }
+
+  public int getPopulationLimit() {
+
+    return this.populationLimit;
+  }
+
+  public long getSeed() {
+
+    return this.seed;
+  }
+
+  public long getTimestamp() {
+
+    return this.timestamp;
+  }
+
+  public int getLogLines() {
+
+    return this.logLines;
+  }
+
+  public int getIslands() {
+
+    return this.genes.length;
+  }
+
+  public int getGenerationsEvolved(int island) {
+
+    return this.generations[island];
+  }
+}
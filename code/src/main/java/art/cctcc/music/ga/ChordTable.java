@@ -0,0 +1,329 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import static art.cctcc.music.Settings.*;
+import art.cctcc.music.Settings;
+import java.lang.reflect.Array;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed chord analysis.
+ *
+ * <p>Every result of the chord tests in {@link Pitch} only depends on the step of the lowest note
+ * and on the set of steps present, so a chord of any voicing is packed into a key of <code>
+ * bottom * 128 + mask</code>, where <code>mask</code> has bit <code>ord % 7</code> set for each
+ * note. The 7 x 128 table is built once when the class is loaded.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public final class ChordTable {
+
+  private static final int SIZE = 7 * 128;
+  private static final int BDF = stepMask("BDF");
+
+  private static final char[] ROOT = new char[SIZE];
+  private static final char[] TRIAD = new char[SIZE];
+  private static final char[] SEVENTH = new char[SIZE];
+  private static final char[] SERIES = new char[SIZE];
+  private static final char[] PROGRESSION = new char[SIZE];
+  private static final boolean[] ROOT_POSITION = new boolean[SIZE];
+  private static final int[] NUMBERS = new int[SIZE];
+  private static final int[] SEVENTH_STEP = new int[SIZE];
+
+  private static final Set<Integer>[] NUMBER_SETS = newTable(Set.class, SIZE);
+  private static final List<Integer>[] FIGURES = newTable(List.class, SIZE);
+  private static final Set<String>[] STEP_SETS = newTable(Set.class, 128);
+
+  /** Pairs of progression symbols ending a progression in one of {@link Settings#Cadences}. */
+  private static final boolean[] CADENCES = new boolean[128 * 128];
+
+  private static final Set<Integer> TRIAD_NUMBERS =
+      Set.of(numbers(5, 3), numbers(3), numbers(6, 3), numbers(6, 4));
+  private static final Set<Integer> SEVENTH_NUMBERS =
+      Set.of(
+          numbers(7, 5, 3),
+          numbers(7, 3),
+          numbers(6, 5, 3),
+          numbers(6, 5),
+          numbers(6, 4, 3),
+          numbers(6, 4, 2),
+          numbers(4, 2));
+
+  static {
+    for (int mask = 0; mask < 128; mask++) {
+      var m = mask;
+      STEP_SETS[mask] =
+          Set.copyOf(
+              IntStream.range(0, 7)
+                  .filter(s -> (m & 1 << s) != 0)
+                  .mapToObj(s -> Pitch.values()[s].getStep())
+                  .toList());
+    }
+    for (int bottom = 0; bottom < 7; bottom++)
+      for (int mask = 0; mask < 128; mask++) {
+        if ((mask & 1 << bottom) == 0) continue;
+        var key = bottom * 128 + mask;
+        var numbers = 0;
+        for (int s = 0; s < 7; s++)
+          if (s != bottom && (mask & 1 << s) != 0) numbers |= 1 << ((s - bottom + 7) % 7 + 1);
+        var root = 'X';
+        for (int s = 0; s < 7; s++)
+          if ((mask & 1 << s) != 0 && (mask & ~seventhChord(s)) == 0) {
+            root = SEVENTHS.get(s).charAt(0);
+            break;
+          }
+        NUMBERS[key] = numbers;
+        ROOT[key] = root;
+        TRIAD[key] = mask == BDF || !TRIAD_NUMBERS.contains(numbers) ? 'X' : root;
+        SEVENTH[key] =
+            mask == BDF
+                ? 'B'
+                : SEVENTH_NUMBERS.contains(numbers) ? Character.toLowerCase(root) : 'X';
+        ROOT_POSITION[key] =
+            mask == BDF
+                ? numbers == numbers(6, 3)
+                : (numbers & numbers(3)) != 0 && (numbers & ~numbers(7, 5, 3)) == 0;
+        SEVENTH_STEP[key] =
+            mask == BDF ? stepOf('F') : root == 'X' ? -1 : (stepOf(root) + 6) % 7;
+        SERIES[key] =
+            TRIAD[key] == 'X'
+                ? (SEVENTH[key] == 'X' ? 'X' : (ROOT_POSITION[key] ? 'S' : 's'))
+                : (ROOT_POSITION[key] ? 'T' : 't');
+        PROGRESSION[key] =
+            TRIAD[key] != 'X' ? TRIAD[key] : SEVENTH[key] != 'X' ? SEVENTH[key] : 'X';
+        var n = numbers;
+        NUMBER_SETS[key] =
+            Set.copyOf(IntStream.rangeClosed(2, 7).filter(i -> (n & 1 << i) != 0).boxed().toList());
+        FIGURES[key] = NUMBER_SETS[key].stream().sorted(Comparator.reverseOrder()).toList();
+      }
+    var symbols = "CDEFGABcdefgabX";
+    for (var pattern : Cadences.stream().map(Pattern::compile).toList())
+      for (var a : symbols.toCharArray())
+        for (var b : symbols.toCharArray()) {
+          var matches = pattern.matcher("[" + a + b + "]").matches();
+          if (matches != pattern.matcher("[" + symbols + a + b + "]").matches())
+            throw new IllegalStateException(
+                "ChordTable: Cadence depending on more than the last 2 chords: " + pattern);
+          CADENCES[a * 128 + b] |= matches;
+        }
+  }
+
+  private ChordTable() {}
+
+  /**
+   * Pack the chord of specified position in a chord-major gene array.
+   *
+   * @param genes chord-major pitch ordinals.
+   * @param offset index of the first note of the chord.
+   * @param voices number of notes in the chord.
+   * @return chord key.
+   */
+  public static int key(int[] genes, int offset, int voices) {
+
+    var bottom = genes[offset];
+    var mask = 0;
+    for (int i = offset; i < offset + voices; i++) {
+      var p = genes[i];
+      if (p < bottom) bottom = p;
+      mask |= 1 << p % 7;
+    }
+    return bottom % 7 * 128 + mask;
+  }
+
+  public static int key(List<Integer> ords) {
+
+    var bottom = ords.get(0).intValue();
+    var mask = 0;
+    for (int i = 0; i < ords.size(); i++) {
+      int p = ords.get(i);
+      if (p < bottom) bottom = p;
+      mask |= 1 << p % 7;
+    }
+    return bottom % 7 * 128 + mask;
+  }
+
+  /**
+   * Steps present in the chord as bits of <code>ord % 7</code>.
+   *
+   * @param key chord key.
+   * @return step mask.
+   */
+  public static int mask(int key) {
+
+    return key & 127;
+  }
+
+  public static char getRoot(int key) {
+
+    return ROOT[key];
+  }
+
+  public static char triadChordTest(int key) {
+
+    return TRIAD[key];
+  }
+
+  public static char seventhChordTest(int key) {
+
+    return SEVENTH[key];
+  }
+
+  public static boolean isRootPosition(int key) {
+
+    return ROOT_POSITION[key];
+  }
+
+  /**
+   * Symbol used in {@link Individual#getSeries()}.
+   *
+   * @param key chord key.
+   * @return <code>'T'/'t'</code> for triads, <code>'S'/'s'</code> for sevenths in root
+   *     position/inversion, <code>'X'</code> for others.
+   */
+  public static char getSeriesSymbol(int key) {
+
+    return SERIES[key];
+  }
+
+  /**
+   * Symbol used in {@link Individual#getProgression()}.
+   *
+   * @param key chord key.
+   * @return upper case root for triads, lower case root for sevenths, <code>'B'</code> for the
+   *     diminished triad and <code>'X'</code> for others.
+   */
+  public static char getProgressionSymbol(int key) {
+
+    return PROGRESSION[key];
+  }
+
+  /**
+   * Check if two successive chords end a progression in one of {@link Settings#Cadences}, for
+   * progressions of at least 2 chords.
+   *
+   * @param previous key of the penultimate chord.
+   * @param last key of the last chord.
+   * @return true if a cadence.
+   */
+  public static boolean isCadence(int previous, int last) {
+
+    return CADENCES[PROGRESSION[previous] * 128 + PROGRESSION[last]];
+  }
+
+  /**
+   * Figured numbers above the bass as bits <code>2..7</code>.
+   *
+   * @param key chord key.
+   * @return bit set of figured numbers.
+   */
+  public static int getNumberBits(int key) {
+
+    return NUMBERS[key];
+  }
+
+  public static Set<Integer> getNumbers(int key) {
+
+    return NUMBER_SETS[key];
+  }
+
+  /**
+   * Figured numbers in descending order.
+   *
+   * @param key chord key.
+   * @return unmodifiable list of figured numbers.
+   */
+  public static List<Integer> getFigures(int key) {
+
+    return FIGURES[key];
+  }
+
+  public static Set<String> getPitchSet(int key) {
+
+    return STEP_SETS[mask(key)];
+  }
+
+  /**
+   * Step of the seventh note, i.e. <code>ord % 7</code> of notes to be located.
+   *
+   * @param key chord key.
+   * @return step of the seventh note.
+   * @throws NoSuchElementException if the chord has no root.
+   */
+  public static int getSeventhStep(int key) {
+
+    if (SEVENTH_STEP[key] < 0) throw new NoSuchElementException("No root: " + key);
+    return SEVENTH_STEP[key];
+  }
+
+  /**
+   * Voices holding the seventh note of the chord at specified position.
+   *
+   * @param genes chord-major pitch ordinals.
+   * @param offset index of the first note of the chord.
+   * @param voices number of notes in the chord.
+   * @return bit mask of voice indices.
+   */
+  public static long getSeventhVoices(int[] genes, int offset, int voices) {
+
+    var seventh = getSeventhStep(key(genes, offset, voices));
+    var result = 0L;
+    for (int v = 0; v < voices; v++) if (genes[offset + v] % 7 == seventh) result |= 1L << v;
+    return result;
+  }
+
+  static int stepMask(String steps) {
+
+    var mask = 0;
+    for (var c : steps.toCharArray()) mask |= 1 << stepOf(c);
+    return mask;
+  }
+
+  /**
+   * Create a table of a generic element type, which cannot be created directly.
+   *
+   * @param type erased element type.
+   * @param size number of entries.
+   * @return table of null entries.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T[] newTable(Class<?> type, int size) {
+
+    return (T[]) Array.newInstance(type, size);
+  }
+
+  private static int stepOf(char step) {
+
+    return "CDEFGAB".indexOf(step);
+  }
+
+  private static int seventhChord(int root) {
+
+    return stepMask(SEVENTHS.get(root));
+  }
+
+  private static int numbers(int... figures) {
+
+    var bits = 0;
+    for (var n : figures) bits |= 1 << n;
+    return bits;
+  }
+}
@@ -15,55 +15,91 @@
  */
 package art.cctcc.music.ga;
 
-import static art.cctcc.music.Settings.R;
-import java.util.ArrayList;
+import java.util.Arrays;
 import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.exception.OutOfRangeException;
 import org.apache.commons.math3.exception.util.LocalizedFormats;
 import org.apache.commons.math3.genetics.Chromosome;
 import org.apache.commons.math3.genetics.ChromosomePair;
 import org.apache.commons.math3.genetics.CrossoverPolicy;
-import org.apache.commons.math3.genetics.UniformCrossover;
 
 /**
  * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
  */
 public class CrossoverByChord implements CrossoverPolicy {
 
+  private final RandomContext random;
   private final double CROSSOVER_BY_CHORD_RATIO;
   private final CrossoverPolicy CHORDAL;
   private final CrossoverPolicy UNIFORM;
 
-  /** Constructor with no uniform crossover. */
-  public CrossoverByChord() {
+  /**
+   * Constructor with no uniform crossover.
+   *
+   * @param random random streams of the run.
+   */
+  public CrossoverByChord(RandomContext random) {
 
-    this(1.0, 0.0);
+    this(random, 1.0, 0.0);
   }
 
   /**
    * Constructor with specified chance for Chordal Crossover and uniform ratio.
    *
+   * @param random random streams of the run.
    * @param byChordRatio chance to use chordal crossover.
    * @param uniformRatio ratio between parents for uniform crossover.
    */
-  public CrossoverByChord(double byChordRatio, double uniformRatio) {
+  public CrossoverByChord(RandomContext random, double byChordRatio, double uniformRatio) {
 
+    this.random = random;
     this.CHORDAL =
         (first, second) -> {
           if (first instanceof Individual idv1 && second instanceof Individual idv2) {
-            var locus = R.nextInt(idv1.getChordNumber() - 1) + 1;
-            var c1 = new ArrayList<Integer>(idv1.getChord(0));
-            var c2 = new ArrayList<Integer>(idv2.getChord(0));
-            for (int i = 1; i < idv1.getChordNumber(); i++) {
-              c1.addAll((i < locus) ? idv1.getChord(i) : idv2.getChord(i));
-              c2.addAll((i < locus) ? idv2.getChord(i) : idv1.getChord(i));
-            }
-            return new ChromosomePair(new Individual(c1), new Individual(c2));
+            var locus = random.current().nextInt(idv1.getChordNumber() - 1) + 1;
+            var split = locus * idv1.getVoice().length();
+            var g1 = idv1.genes();
+            var g2 = idv2.genes();
+            var c1 = g1.clone();
+            var c2 = g2.clone();
+            System.arraycopy(g2, split, c1, split, g2.length - split);
+            System.arraycopy(g1, split, c2, split, g1.length - split);
+            return new ChromosomePair(
+                idv1.withGenes(idv2, locus, c1), idv2.withGenes(idv1, locus, c2));
           }
           throw new MathIllegalArgumentException(
               LocalizedFormats.ARGUMENT_OUTSIDE_DOMAIN, first, second);
         };
 
-    this.UNIFORM = new UniformCrossover(uniformRatio);
+    if (uniformRatio < 0.0d || uniformRatio > 1.0d)
+      throw new OutOfRangeException(LocalizedFormats.CROSSOVER_RATE, uniformRatio, 0.0d, 1.0d);
+
+    // Same gene-wise swap as commons-math UniformCrossover, without boxing the representation.
+    this.UNIFORM =
+        (first, second) -> {
+          if (first instanceof Individual idv1 && second instanceof Individual idv2) {
+            var g1 = idv1.genes();
+            var g2 = idv2.genes();
+            var c1 = new int[g1.length];
+            var c2 = new int[g2.length];
+            var r = random.current();
+            var voices = idv1.getVoice().length();
+            var changed = new int[idv1.getChordNumber()];
+            var count = 0;
+            for (int i = 0; i < g1.length; i++) {
+              var swap = r.nextDouble() < uniformRatio;
+              c1[i] = swap ? g2[i] : g1[i];
+              c2[i] = swap ? g1[i] : g2[i];
+              if (c1[i] != g1[i] && (count == 0 || changed[count - 1] != i / voices))
+                changed[count++] = i / voices;
+            }
+            changed = Arrays.copyOf(changed, count);
+            return new ChromosomePair(
+                idv1.withGenes(c1, changed), idv2.withGenes(c2, changed));
+          }
+          throw new MathIllegalArgumentException(
+              LocalizedFormats.ARGUMENT_OUTSIDE_DOMAIN, first, second);
+        };
 
     this.CROSSOVER_BY_CHORD_RATIO = byChordRatio;
   }
@@ -72,7 +108,7 @@ public class CrossoverByChord implements CrossoverPolicy {
   public ChromosomePair crossover(Chromosome first, Chromosome second)
       throws MathIllegalArgumentException {
 
-    return R.nextDouble() < CROSSOVER_BY_CHORD_RATIO
+    return this.random.current().nextDouble() < CROSSOVER_BY_CHORD_RATIO
         ? CHORDAL.crossover(first, second)
         : UNIFORM.crossover(first, second);
   }
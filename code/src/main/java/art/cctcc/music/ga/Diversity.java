@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.math3.genetics.Chromosome;
+
+/**
+ * Diversity of a population: how many of its genomes are distinct, and how evenly the notes at
+ * each locus are spread over the pitches.
+ *
+ * @param unique number of distinct genomes.
+ * @param entropy Shannon entropy in bits of the pitches at each gene index, 0 where all genomes
+ *     share the note.
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public record Diversity(int unique, double[] entropy) {
+
+  /** Pitches a note may take, i.e. counts per locus. */
+  static final int PITCHES = Pitch.values().length;
+
+  /**
+   * Measure the diversity of a population, on the packed genomes of an {@link ArenaPopulation}.
+   *
+   * @param population population of individuals of the same voicing and chord number.
+   * @return diversity of the population.
+   */
+  public static Diversity of(MyPopulation population) {
+
+    return population instanceof ArenaPopulation packed
+        ? packed.getArena().getDiversity()
+        : of(population.getChromosomes());
+  }
+
+  /**
+   * Measure the diversity of chromosomes in a single pass over their genes.
+   *
+   * @param chromosomes individuals of the same voicing and chord number.
+   * @return diversity of the chromosomes.
+   */
+  public static Diversity of(List<Chromosome> chromosomes) {
+
+    var genomes = new GenomeSet(chromosomes.size());
+    var length = chromosomes.isEmpty() ? 0 : ((Individual) chromosomes.get(0)).getLength();
+    var counts = new int[length * PITCHES];
+    for (var chromosome : chromosomes) {
+      var idv = (Individual) chromosome;
+      genomes.add(idv);
+      var genes = idv.genes();
+      for (int g = 0; g < length; g++) counts[g * PITCHES + genes[g]]++;
+    }
+    return of(genomes.size(), counts, chromosomes.size());
+  }
+
+  /**
+   * Take the diversity from counts of the pitches at each locus.
+   *
+   * @param unique number of distinct genomes.
+   * @param counts genomes with each pitch at each locus, indexed by <code>
+   *     locus * PITCHES + pitch</code>.
+   * @param size number of genomes.
+   * @return diversity of the genomes.
+   */
+  static Diversity of(int unique, int[] counts, int size) {
+
+    var entropy = new double[counts.length / PITCHES];
+    for (int g = 0; g < entropy.length; g++)
+      for (int p = 0; p < PITCHES; p++)
+        if (counts[g * PITCHES + p] > 0) {
+          var share = (double) counts[g * PITCHES + p] / size;
+          entropy[g] -= share * Math.log(share) / Math.log(2);
+        }
+    return new Diversity(unique, entropy);
+  }
+
+  /**
+   * Average the entropy over all loci.
+   *
+   * @return mean entropy in bits.
+   */
+  public double getMeanEntropy() {
+
+    return Arrays.stream(this.entropy).average().orElse(0.0);
+  }
+
+  /**
+   * Find the entropy of the least diverse locus.
+   *
+   * @return least entropy in bits.
+   */
+  public double getMinEntropy() {
+
+    return Arrays.stream(this.entropy).min().orElse(0.0);
+  }
+}
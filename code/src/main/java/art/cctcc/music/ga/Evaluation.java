@@ -19,7 +19,6 @@ import static art.cctcc.music.Settings.*;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
 import static java.util.function.Predicate.not;
@@ -35,19 +34,21 @@ public enum Evaluation {
   MelodicSmoothness(
       PenaltyMelodicSmoothness,
       idv ->
-          IntStream.range(0, Individual.VOICE.length())
-              .map(i -> melodicInfeasibilityCount(Individual.VOICE.charAt(i), idv.getMelody(i)))
-              .sum()),
+          IntStream.range(0, idv.getVoice().length())
+              .map(i -> melodicInfeasibilityCount(idv.getVoice().charAt(i), idv.getMelody(i)))
+              .sum(),
+      true,
+      Evaluation::melodicTerms),
 
   /** Evaluate if two melodies are independent in terms of counterpoint. */
   VoiceIndependence(
       PenaltyVoiceIndependence,
       idv ->
-          IntStream.range(0, Individual.VOICE.length() - 1)
+          IntStream.range(0, idv.getVoice().length() - 1)
               .map(
                   i ->
                       (int)
-                          IntStream.range(i + 1, Individual.VOICE.length())
+                          IntStream.range(i + 1, idv.getVoice().length())
                               .mapToLong(
                                   j ->
                                       voiceIndependenceCheck(
@@ -56,10 +57,11 @@ public enum Evaluation {
                                           "SBS"
                                               .contains(
                                                   ""
-                                                      + Individual.VOICE.charAt(i)
-                                                      + Individual.VOICE.charAt(j))))
+                                                      + idv.getVoice().charAt(i)
+                                                      + idv.getVoice().charAt(j))))
                               .sum())
-              .sum()),
+              .sum(),
+      Evaluation::parallelCount),
 
   /** Evaluate if S/A are outer voices. */
   ImproperOuterVoices(
@@ -67,25 +69,43 @@ public enum Evaluation {
       idv ->
           (int)
               IntStream.range(0, idv.getChordNumber())
-                  .map(idx -> improperOuterVoiceCount(idv.getChord(idx)))
-                  .sum()),
+                  .map(idx -> improperOuterVoiceCount(idv.getVoice(), idv.getChord(idx)))
+                  .sum(),
+      Evaluation::improperOuterVoiceTerm),
 
   /** Evaluate if all chords are Triad Or Seventh */
   NotTriadOrSeventhChord(
-      PenaltyNotTriadOrSeventhChord, idv -> idv.getSeries().split("[X]").length - 1),
+      PenaltyNotTriadOrSeventhChord,
+      idv ->
+          (int)
+              Arrays.stream(idv.getChordKeys())
+                  .filter(key -> ChordTable.getSeriesSymbol(key) == 'X')
+                  .count(),
+      (genes, voice, chords, pos) -> series(genes, voice, pos) == 'X' ? 1 : 0),
 
   /** Evaluate if the seventh note is handled properly. */
   ImproperResolution(
       PenaltyImproperResolution,
-      idv -> improperSeventhResolution(idv) + improperLeadingToneResolution(idv)),
+      idv -> improperSeventhResolution(idv) + improperLeadingToneResolution(idv),
+      Evaluation::improperResolutionTerm),
 
   /** Evaluate if there are successive dissonant chords. */
   SuccessiveDissonantChords(
       PenaltySuccessiveDissonance,
-      idv -> (int) Arrays.stream(idv.getSeries().split("[SsX]")).filter(String::isEmpty).count()),
+      idv -> successiveDissonantCount(idv.getChordKeys()),
+      (genes, voice, chords, pos) ->
+          pos > 0
+                  && isDissonant(series(genes, voice, pos - 1))
+                  && isDissonant(series(genes, voice, pos))
+              ? 1
+              : 0),
 
   /** Evaluate if starting with triad. */
-  StartWithNonTriad(PenaltyNonTriadStart, idv -> idv.getSeries().matches("\\[[Tt].+") ? 0 : 1),
+  StartWithNonTriad(
+      PenaltyNonTriadStart,
+      idv -> "Tt".indexOf(ChordTable.getSeriesSymbol(idv.getChordKeys()[0])) < 0 ? 1 : 0,
+      (genes, voice, chords, pos) ->
+          pos == 0 && "Tt".indexOf(series(genes, voice, pos)) < 0 ? 1 : 0),
 
   /**
    * Evaluate if a proper cadence is presented.
@@ -94,22 +114,61 @@ public enum Evaluation {
    */
   ImproperCadentialForm(
       PenaltyImproperCadential,
-      idv ->
-          (idv.getSeries().matches(".+[ST]T\\]") ? 0 : 1)
-              + (Cadences.stream().anyMatch(idv.getProgression()::matches) ? 0 : 1)
-              + (Objects.equals(
-                      "" + Pitch.getRoot(idv.getLastChord()),
-                      Pitch.values()[Pitch.getTop(idv.getLastChord())].getStep())
-                  ? 0
-                  : 1));
+      idv -> {
+        var keys = idv.getChordKeys();
+        var last = keys.length - 1;
+        return improperCadenceCount(
+            last == 0 ? -1 : keys[last - 1], keys[last], Pitch.getTop(idv.getLastChord()));
+      },
+      Evaluation::improperCadenceTerm);
+
+  /** Terms of one chord position of a rule, written from <code>terms[offset]</code> on. */
+  @FunctionalInterface
+  interface LocalTerms {
+
+    void compute(int[] genes, String voice, int chords, int pos, int[] terms, int offset);
+  }
+
+  /** Single term of one chord position of a rule. */
+  @FunctionalInterface
+  interface LocalTerm {
+
+    int count(int[] genes, String voice, int chords, int pos);
+  }
 
   private final double unitPenalty;
   private final Function<Individual, Integer> evalFn;
+  private final boolean balanced;
+  private final LocalTerms localTerms;
+
+  private Evaluation(
+      double unitPenalty, Function<Individual, Integer> evalFn, LocalTerm localTerm) {
 
-  private Evaluation(double unitPenalty, Function<Individual, Integer> evalFn) {
+    this(
+        unitPenalty,
+        evalFn,
+        false,
+        (genes, voice, chords, pos, terms, offset) ->
+            terms[offset] = localTerm.count(genes, voice, chords, pos));
+  }
+
+  /**
+   * @param unitPenalty penalty of each count.
+   * @param evalFn count over the whole chromosome.
+   * @param balanced true if the rule has a balance term per voice besides its count, which only
+   *     adds to the count when positive in total.
+   * @param localTerms decomposed form of <code>evalFn</code>, see {@link #computeTerms}.
+   */
+  private Evaluation(
+      double unitPenalty,
+      Function<Individual, Integer> evalFn,
+      boolean balanced,
+      LocalTerms localTerms) {
 
     this.unitPenalty = unitPenalty;
     this.evalFn = evalFn;
+    this.balanced = balanced;
+    this.localTerms = localTerms;
   }
 
   public double evaluate(Individual idv) {
@@ -117,26 +176,106 @@ public enum Evaluation {
     return this.unitPenalty * this.evalFn.apply(idv);
   }
 
+  /**
+   * Count of violations of this rule on a whole chromosome.
+   *
+   * @param idv individual to evaluate.
+   * @return count, whose penalty is {@link #getPenalty(int)}.
+   */
+  public int count(Individual idv) {
+
+    return this.evalFn.apply(idv);
+  }
+
+  public double getPenalty(int count) {
+
+    return this.unitPenalty * count;
+  }
+
+  /**
+   * Number of terms of this rule per chord position.
+   *
+   * @param voice voice types.
+   * @return 1, or 1 plus the voice number for rules with balance terms.
+   */
+  public int getTermWidth(String voice) {
+
+    return this.balanced ? 1 + voice.length() : 1;
+  }
+
+  /**
+   * Compute the terms of a chord position, which sum up over all positions to the count of this
+   * rule. Terms of position <code>pos</code> only depend on chords <code>pos - 2</code> to <code>
+   * pos</code> and on the chord number, i.e. whether the position is the first or the last one,
+   * so changing a chord only affects terms of the next 3 positions.
+   *
+   * @param genes chord-major pitch ordinals.
+   * @param voice voice types.
+   * @param chords chord number.
+   * @param pos chord position.
+   * @param terms array to write {@link #getTermWidth} terms into.
+   * @param offset index of the first term.
+   */
+  public void computeTerms(
+      int[] genes, String voice, int chords, int pos, int[] terms, int offset) {
+
+    this.localTerms.compute(genes, voice, chords, pos, terms, offset);
+  }
+
+  /**
+   * Count of this rule from the terms summed up over all positions.
+   *
+   * @param totals summed terms.
+   * @param offset index of the first term of this rule.
+   * @param voice voice types.
+   * @return same count as evaluated on the whole chromosome.
+   */
+  public int count(int[] totals, int offset, String voice) {
+
+    var count = totals[offset];
+    for (int i = 1; i < this.getTermWidth(voice); i++) count += Math.max(0, totals[offset + i]);
+    return count;
+  }
+
   public static int melodicInfeasibilityCount(char v, List<Integer> melody) {
 
-    var count =
-        (int)
-            IntStream.range(1, melody.size() - 1)
-                .mapToObj(i -> List.of(melody.get(i - 1), melody.get(i), melody.get(i + 1)))
-                .filter(itvl -> !isMelodicFeasible(v, itvl))
-                .count();
-    var itvl_groups =
-        IntStream.range(1, melody.size())
-            .mapToObj(i -> Math.abs(melody.get(i) - melody.get(i - 1)))
-            .collect(
-                Collectors.groupingBy(itvl -> itvl > 1 ? "Skip" : "Step", Collectors.counting()));
-    count +=
-        Math.max(0, itvl_groups.getOrDefault("Skip", 0L) - itvl_groups.getOrDefault("Step", 0L));
+    var count = 0;
+    for (int i = 1; i < melody.size() - 1; i++)
+      if (!MelodicTable.isFeasible(v, melody.get(i - 1), melody.get(i), melody.get(i + 1)))
+        count++;
+    var skip_minus_step = 0;
+    for (int i = 1; i < melody.size(); i++)
+      skip_minus_step += Math.abs(melody.get(i) - melody.get(i - 1)) > 1 ? 1 : -1;
+    count += Math.max(0, skip_minus_step);
     return count;
   }
 
+  /**
+   * Check if a melodic figure is easy to sing. Figures of 2 and 3 notes are looked up in {@link
+   * MelodicTable}.
+   *
+   * @param v voice type.
+   * @param figure successive notes.
+   * @return true if feasible.
+   */
   public static boolean isMelodicFeasible(char v, List<Integer> figure) {
 
+    return switch (figure.size()) {
+      case 2 -> MelodicTable.isFeasible(v, figure.get(0), figure.get(1));
+      case 3 -> MelodicTable.isFeasible(v, figure.get(0), figure.get(1), figure.get(2));
+      default -> isMelodicFeasibleFigure(v, figure);
+    };
+  }
+
+  /**
+   * Definition of melodic feasibility, from which {@link MelodicTable} is built.
+   *
+   * @param v voice type.
+   * @param figure successive notes.
+   * @return true if feasible.
+   */
+  static boolean isMelodicFeasibleFigure(char v, List<Integer> figure) {
+
     for (int i = 0; i < figure.size() - 1; i++) {
       if (Pitch.getPitchSet(figure.get(i), figure.get(i + 1)).equals(Set.of("B", "F")))
         return false;
@@ -199,27 +338,38 @@ public enum Evaluation {
         .sum();
   }
 
+  /**
+   * Count leading tones of outer voices not resolved to the tonic, where successive leading tones
+   * count once, and a leading tone on the last chord only counts after another one.
+   *
+   * @param idv individual to evaluate.
+   * @return number of unresolved leading tones.
+   */
   public static int improperLeadingToneResolution(Individual idv) {
 
-    return IntStream.range(0, Individual.VOICE.length())
-        .filter(v -> "SB".contains("" + Individual.VOICE.charAt(v)))
-        .mapToObj(idv::getMelody)
-        .map(Pitch::translateO2P)
-        .map(List::toString)
-        .mapToInt(str -> str.split("(B., )+").length - str.split("B., C").length)
-        .sum();
+    var count = 0;
+    var chords = idv.getChordNumber();
+    for (int v = 0; v < idv.getVoice().length(); v++) {
+      if (idv.getVoice().charAt(v) != 'S' && idv.getVoice().charAt(v) != 'B') continue;
+      for (int pos = 1; pos < chords; pos++)
+        if (idv.getPitch(pos - 1, v) % 7 == 6) {
+          var step = idv.getPitch(pos, v) % 7;
+          if (step == 6 ? pos == chords - 1 : step != 0) count++;
+        }
+    }
+    return count;
   }
 
-  public static int improperOuterVoiceCount(List<Integer> ords) {
+  public static int improperOuterVoiceCount(String voice, List<Integer> ords) {
 
     return (int)
-        IntStream.range(0, Individual.VOICE.length())
-            .filter(v -> "SB".contains("" + Individual.VOICE.charAt(v)))
+        IntStream.range(0, voice.length())
+            .filter(v -> "SB".contains("" + voice.charAt(v)))
             .filter(
                 v ->
                     !ords.stream()
                         .sorted(
-                            Individual.VOICE.charAt(v) == 'B'
+                            voice.charAt(v) == 'B'
                                 ? Comparator.naturalOrder()
                                 : Comparator.reverseOrder())
                         .findFirst()
@@ -227,4 +377,142 @@ public enum Evaluation {
                         .equals(ords.get(v)))
             .count();
   }
+
+  private static int key(int[] genes, String voice, int pos) {
+
+    return ChordTable.key(genes, pos * voice.length(), voice.length());
+  }
+
+  private static char series(int[] genes, String voice, int pos) {
+
+    return ChordTable.getSeriesSymbol(key(genes, voice, pos));
+  }
+
+  private static boolean isDissonant(char series) {
+
+    return series == 'S' || series == 's' || series == 'X';
+  }
+
+  /** Infeasible 3-note figures ending at the position, and skip-minus-step of each voice. */
+  private static void melodicTerms(
+      int[] genes, String voice, int chords, int pos, int[] terms, int offset) {
+
+    var n = voice.length();
+    terms[offset] = 0;
+    for (int v = 0; v < n; v++) {
+      var p = genes[pos * n + v];
+      if (pos >= 2
+          && !MelodicTable.isFeasible(
+              voice.charAt(v), genes[(pos - 2) * n + v], genes[(pos - 1) * n + v], p))
+        terms[offset]++;
+      terms[offset + 1 + v] = pos == 0 ? 0 : Math.abs(p - genes[(pos - 1) * n + v]) > 1 ? 1 : -1;
+    }
+  }
+
+  /** Parallel 5th and 8th arriving at the position, as in {@link #voiceIndependenceCheck}. */
+  private static int parallelCount(int[] genes, String voice, int chords, int pos) {
+
+    if (pos == 0) return 0;
+    var n = voice.length();
+    var count = 0;
+    for (int i = 0; i < n - 1; i++)
+      for (int j = i + 1; j < n; j++) {
+        var m1 = genes[pos * n + i];
+        var m2 = genes[pos * n + j];
+        var s1 = m1 % 7;
+        var s2 = m2 % 7;
+        if (s1 == 3 && s2 == 6 || s1 == 6 && s2 == 3) continue;
+        var currItvl = Math.abs(m2 - m1) % 7;
+        if (currItvl != 0 && currItvl != 4) continue;
+        var prevItvl = Math.abs(genes[(pos - 1) * n + j] - genes[(pos - 1) * n + i]) % 7;
+        var motion = (m2 - genes[(pos - 1) * n + j]) * (m1 - genes[(pos - 1) * n + i]);
+        var isOuters =
+            voice.charAt(i) == 'S' && voice.charAt(j) == 'B'
+                || voice.charAt(i) == 'B' && voice.charAt(j) == 'S';
+        if (prevItvl == currItvl && motion != 0 || isOuters && motion > 0) count++;
+      }
+    return count;
+  }
+
+  private static int improperOuterVoiceTerm(int[] genes, String voice, int chords, int pos) {
+
+    var n = voice.length();
+    var top = genes[pos * n];
+    var bottom = top;
+    for (int v = 1; v < n; v++) {
+      top = Math.max(top, genes[pos * n + v]);
+      bottom = Math.min(bottom, genes[pos * n + v]);
+    }
+    var count = 0;
+    for (int v = 0; v < n; v++)
+      if (voice.charAt(v) == 'S' && genes[pos * n + v] != top
+          || voice.charAt(v) == 'B' && genes[pos * n + v] != bottom) count++;
+    return count;
+  }
+
+  /**
+   * Sevenths of the previous chord not resolved at the position, and leading tones of outer
+   * voices not resolved at the position, where a run of leading tones counts once.
+   */
+  private static int improperResolutionTerm(int[] genes, String voice, int chords, int pos) {
+
+    if (pos == 0) return 0;
+    var n = voice.length();
+    var prev = (pos - 1) * n;
+    var count = 0;
+    var key = ChordTable.key(genes, prev, n);
+    if (ChordTable.seventhChordTest(key) != 'X') {
+      var seventh = ChordTable.getSeventhStep(key);
+      for (int v = 0; v < n; v++)
+        if (genes[prev + v] % 7 == seventh) {
+          var itvl = genes[prev + n + v] - genes[prev + v];
+          if (itvl != -1 && itvl != 0) count++;
+        }
+    }
+    for (int v = 0; v < n; v++)
+      if ((voice.charAt(v) == 'S' || voice.charAt(v) == 'B') && genes[prev + v] % 7 == 6) {
+        var step = genes[prev + n + v] % 7;
+        if (step == 6 ? pos == chords - 1 : step != 0) count++;
+      }
+    return count;
+  }
+
+  private static int successiveDissonantCount(int[] keys) {
+
+    var count = 0;
+    for (int pos = 1; pos < keys.length; pos++)
+      if (isDissonant(ChordTable.getSeriesSymbol(keys[pos - 1]))
+          && isDissonant(ChordTable.getSeriesSymbol(keys[pos]))) count++;
+    return count;
+  }
+
+  /**
+   * Count improper features of the final cadence: not ending with a root position triad after
+   * another root position chord, not a cadence of {@link art.cctcc.music.Settings#Cadences}, and
+   * the highest note not on the root.
+   *
+   * @param previous key of the penultimate chord, -1 if the only chord is the last one.
+   * @param last key of the last chord.
+   * @param top highest note of the last chord.
+   * @return number of improper features.
+   */
+  private static int improperCadenceCount(int previous, int last, int top) {
+
+    var count = 0;
+    if (previous < 0
+        || "ST".indexOf(ChordTable.getSeriesSymbol(previous)) < 0
+        || ChordTable.getSeriesSymbol(last) != 'T') count++;
+    if (previous < 0 || !ChordTable.isCadence(previous, last)) count++;
+    if (ChordTable.getRoot(last) != "CDEFGAB".charAt(top % 7)) count++;
+    return count;
+  }
+
+  private static int improperCadenceTerm(int[] genes, String voice, int chords, int pos) {
+
+    if (pos != chords - 1) return 0;
+    var top = genes[pos * voice.length()];
+    for (int v = 1; v < voice.length(); v++) top = Math.max(top, genes[pos * voice.length() + v]);
+    return improperCadenceCount(
+        pos == 0 ? -1 : key(genes, voice, pos - 1), key(genes, voice, pos), top);
+  }
 }
@@ -17,21 +17,35 @@ package art.cctcc.music.ga;
 
 import static art.cctcc.music.Settings.*;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Stream;
+import org.apache.commons.math3.genetics.Population;
 import org.apache.commons.math3.genetics.StoppingCondition;
-import org.apache.commons.math3.genetics.TournamentSelection;
 
 /**
  * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
  */
 public class Explorer {
 
+  /** Last timestamp taken, keeping file names unique among concurrent explorers. */
+  private static final AtomicLong LAST_TIMESTAMP = new AtomicLong();
+
+  /** Largest fitness cache of a run. */
+  private static final int MAX_CACHE = 1 << 16;
+
   private final String voice;
   private final int chord_no;
   private final int populationLimit;
@@ -44,13 +58,41 @@ public class Explorer {
   private final List<Evaluation> evals;
   private final double fitnessAim;
   private final int generationLimit;
+  private final RandomContext random;
+  private final RunContext context;
   private final MyGeneticAlgorithm ga;
+  /** Algorithms of the last start, i.e. the islands or the single algorithm. */
+  private List<MyGeneticAlgorithm> algorithms;
   private final StoppingCondition condition;
-  private final long timestamp;
-  private final String filename;
+  private long timestamp;
+  private String filename;
+
+  private int islands = 1;
+  private int migrationInterval;
+  private int migrants;
+  private IslandModel.Topology topology;
 
   private Individual fittest;
 
+  private MyPopulation.Initialization initialization = INITIALIZATION;
+  private GenomeArena.Backing arena = ARENA;
+
+  private SteadyStatePopulation.Replacement steadyState = STEADY_STATE;
+
+  private Stagnation.Response stagnation = STAGNATION;
+  private int stagnationPatience = STAGNATION_PATIENCE;
+  private double minDiversity = MIN_DIVERSITY;
+
+  private MyPopulation.Duplicates duplicates = DUPLICATES;
+
+  private int checkpointInterval;
+  private Checkpoint restored;
+  private ExecutorService checkpointer;
+  private CompletableFuture<Void> pendingCheckpoint = CompletableFuture.completedFuture(null);
+  private int lastCheckpoint;
+  /** Log lines appended to the text file by checkpoints so far. */
+  private int flushedLines;
+
   public Explorer(
       String voice,
       int chord_no,
@@ -66,6 +108,38 @@ public class Explorer {
       int generationLimit)
       throws IOException {
 
+    this(
+        voice,
+        chord_no,
+        populationLimit,
+        elitismRate,
+        co_rate,
+        cm_rate,
+        mo_rate,
+        max_mutation_loci,
+        max_mutation_voices,
+        evals,
+        fitnessAim,
+        generationLimit,
+        new RandomContext().getSeed());
+  }
+
+  public Explorer(
+      String voice,
+      int chord_no,
+      int populationLimit,
+      double elitismRate,
+      double co_rate,
+      double cm_rate,
+      double mo_rate,
+      int max_mutation_loci,
+      int max_mutation_voices,
+      List<Evaluation> evals,
+      double fitnessAim,
+      int generationLimit,
+      long seed)
+      throws IOException {
+
     this.voice = voice;
     this.populationLimit = populationLimit;
     this.elitismRate = elitismRate;
@@ -78,44 +152,401 @@ public class Explorer {
     this.mo_rate = mo_rate;
     this.max_mutation_loci = max_mutation_loci;
     this.max_mutation_voices = max_mutation_voices;
-    this.ga =
-        new MyGeneticAlgorithm(
-            new CrossoverByChord(0.8, 0.3),
-            new MutationByChord(this.max_mutation_loci, this.max_mutation_voices),
-            new TournamentSelection(2),
-            this.co_rate,
-            this.cm_rate,
-            this.mo_rate);
+    this.random = new RandomContext(seed);
+    // room for about two generations, the span in which duplicates mostly recur, bounded so that
+    // huge populations do not keep the terms of all their chromosomes
+    this.context =
+        new RunContext(
+            this.voice,
+            this.evals,
+            this.random,
+            new FitnessCache(Math.min(2 * this.populationLimit, MAX_CACHE)));
+    this.ga = createAlgorithm(this.random);
+    this.algorithms = List.of(this.ga);
     this.chord_no = chord_no;
 
-    Individual.VOICE = this.voice;
-    Individual.EVALS = this.evals;
+    this.condition = p -> this.isSatisfied(p, this.ga);
 
-    this.condition =
-        p -> {
-          var fittest = p.getFittestChromosome();
-          if (fittest instanceof Individual idv && idv.getProgression().contains("X")) return false;
-          return fittest.getFitness() >= this.fitnessAim
-              || this.ga.getGenerationsEvolved() >= this.generationLimit;
-        };
+    var now = Instant.now().toEpochMilli();
+    this.setTimestamp(LAST_TIMESTAMP.accumulateAndGet(now, (last, t) -> Math.max(last + 1, t)));
+  }
+
+  private void setTimestamp(long timestamp) {
 
-    this.timestamp = Instant.now().toEpochMilli();
-    this.filename = String.format("vlga-%dx%d-%s", voice.length(), chord_no, this.timestamp);
+    this.timestamp = timestamp;
+    this.filename = String.format("vlga-%dx%d-%s", this.voice.length(), this.chord_no, timestamp);
   }
 
-  public void start() throws IOException {
+  private MyGeneticAlgorithm createAlgorithm(RandomContext random) {
 
-    logParameters();
+    return new MyGeneticAlgorithm(
+        new CrossoverByChord(random, 0.8, 0.3),
+        new MutationByChord(random, this.max_mutation_loci, this.max_mutation_voices),
+        new MyTournamentSelection(random, 2),
+        this.co_rate,
+        this.cm_rate,
+        this.mo_rate,
+        random);
+  }
 
-    this.ga.log("\nEvolution begins...");
-    var init_population = new MyPopulation(this.populationLimit, this.elitismRate, this.chord_no);
-    var final_pa = this.ga.evolve(init_population, condition);
+  private MyPopulation createPopulation(
+      RunContext context, int populationLimit, SplittableRandom random) {
+
+    if (this.steadyState != null)
+      return new SteadyStatePopulation(
+          new MyPopulation(
+              context,
+              populationLimit,
+              this.elitismRate,
+              this.chord_no,
+              random,
+              this.initialization),
+          this.steadyState);
+    return this.arena == null
+        ? new MyPopulation(
+            context, populationLimit, this.elitismRate, this.chord_no, random, this.initialization)
+        : new ArenaPopulation(
+            context,
+            populationLimit,
+            this.elitismRate,
+            this.chord_no,
+            random,
+            this.initialization,
+            this.arena);
+  }
+
+  private Stagnation createStagnation(RunContext context) {
+
+    return this.stagnation == null
+        ? null
+        : new Stagnation(
+            this.stagnation,
+            this.stagnationPatience,
+            this.minDiversity,
+            (limit, random) -> this.createPopulation(context, limit, random));
+  }
+
+  /** Hold a restored population as populations of the run are held. */
+  private MyPopulation adopt(MyPopulation population, RunContext context) {
+
+    if (this.steadyState != null) return new SteadyStatePopulation(population, this.steadyState);
+    return this.arena == null
+        ? population
+        : new ArenaPopulation(population, context, this.chord_no, this.arena);
+  }
+
+  private boolean isSatisfied(Population population, MyGeneticAlgorithm ga) {
+
+    var fittest = population.getFittestChromosome();
+    if (fittest instanceof Individual idv && idv.getProgression().contains("X")) return false;
+    return fittest.getFitness() >= this.fitnessAim
+        || ga.getGenerationsEvolved() >= this.generationLimit;
+  }
+
+  /**
+   * Split the population into islands evolving on their own threads, which exchange their fittest
+   * individuals periodically. Each island holds an equal share of the population limit and breeds
+   * on its calling thread regardless of {@link #setParallelism(int)}. Evolution stops as soon as
+   * any island satisfies the stopping condition.
+   *
+   * @param islands number of islands, 1 for a single population.
+   * @param interval generations between migrations.
+   * @param migrants number of fittest individuals each island sends per migration.
+   * @param topology destinations of migrants.
+   */
+  public void setIslands(int islands, int interval, int migrants, IslandModel.Topology topology) {
+
+    if (islands < 1 || this.populationLimit / islands < 2)
+      throw new IllegalArgumentException("Explorer: Invalid number of islands " + islands);
+    this.islands = islands;
+    this.migrationInterval = interval;
+    this.migrants = migrants;
+    this.topology = topology;
+  }
+
+  /**
+   * Set number of worker threads breeding and evaluating each generation.
+   *
+   * @param parallelism number of threads, 1 for sequential evolution.
+   */
+  public void setParallelism(int parallelism) {
+
+    this.ga.setParallelism(parallelism);
+  }
+
+  /**
+   * Set how the initial population is drawn.
+   *
+   * @param initialization random notes or random walks through triads and sevenths.
+   */
+  public void setInitialization(MyPopulation.Initialization initialization) {
+
+    this.initialization = initialization;
+  }
+
+  /**
+   * Pack the populations in arenas instead of holding individuals, see {@link ArenaPopulation}.
+   * The run evolves the same either way.
+   *
+   * @param backing where the arenas are allocated, or null to hold individuals.
+   */
+  public void setArena(GenomeArena.Backing backing) {
+
+    this.arena = backing;
+  }
+
+  /**
+   * Evolve populations in place, see {@link SteadyStatePopulation}, instead of breeding whole
+   * generations. Offspring are bred on the calling thread regardless of {@link
+   * #setParallelism(int)}, and populations are held as individuals regardless of {@link
+   * #setArena}. Generations still count as many offspring as a generational run breeds.
+   *
+   * @param replacement which chromosome an offspring replaces, or null to breed generations.
+   */
+  public void setSteadyState(SteadyStatePopulation.Replacement replacement) {
+
+    this.steadyState = replacement;
+  }
+
+  /**
+   * Replace populations stuck at a local optimum, see {@link Stagnation}. Each island watches its
+   * own population.
+   *
+   * @param response response to stagnation, or null to evolve on regardless.
+   * @param patience generations without improvement before responding, 0 to only watch diversity.
+   * @param minDiversity least share of distinct chromosomes in a population, 0 to ignore
+   *     diversity.
+   */
+  public void setStagnation(Stagnation.Response response, int patience, double minDiversity) {
+
+    this.stagnation = response;
+    this.stagnationPatience = patience;
+    this.minDiversity = minDiversity;
+  }
+
+  /**
+   * Keep offspring identical to a chromosome already in the population they join out of it, see
+   * {@link MyGeneticAlgorithm#setDuplicates}. The unique genomes and the entropy at each locus are
+   * recorded in the metrics of every generation either way.
+   *
+   * @param duplicates what becomes of duplicate offspring, or null to keep them.
+   */
+  public void setDuplicates(MyPopulation.Duplicates duplicates) {
+
+    this.duplicates = duplicates;
+  }
+
+  /**
+   * Checkpoint the run to the data folder every few generations, see {@link Checkpoint}. Files are
+   * written on a background thread, and a checkpoint falling due while the previous one is still
+   * being written is skipped. The checkpoint is deleted once the run completes.
+   *
+   * @param interval generations between checkpoints, 0 to disable. Islands are checkpointed at the
+   *     first migration after the interval.
+   */
+  public void setCheckpointInterval(int interval) {
+
+    if (interval < 0)
+      throw new IllegalArgumentException("Explorer: Invalid checkpoint interval " + interval);
+    this.checkpointInterval = interval;
+  }
+
+  /**
+   * Continue a checkpointed run on {@link #start()}, instead of starting from random populations.
+   * The run goes on exactly as it would have, writing to the files of the checkpointed run. Islands
+   * must be set up as in that run beforehand.
+   *
+   * @param checkpoint checkpoint of a run of the same voicing, chord number, population, islands
+   *     and seed.
+   * @throws IOException if the log of the checkpointed run cannot be read.
+   */
+  public void resume(Checkpoint checkpoint) throws IOException {
+
+    if (!checkpoint.getVoice().equals(this.voice)
+        || checkpoint.getChordNumber() != this.chord_no
+        || checkpoint.getPopulationLimit() != this.populationLimit
+        || checkpoint.getIslands() != this.islands
+        || checkpoint.getSeed() != this.random.getSeed())
+      throw new IllegalArgumentException("Explorer: Checkpoint of another run");
+    this.setTimestamp(checkpoint.getTimestamp());
+    var log = DATA_FOLDER.resolve(this.filename + ".txt");
+    var lines = Files.readAllLines(log);
+    if (lines.size() < checkpoint.getLogLines())
+      throw new IOException("Explorer: Log shorter than checkpoint " + log);
+    // drop lines logged after the checkpoint, which the resumed run logs again
+    lines = lines.subList(0, checkpoint.getLogLines());
+    Files.write(log, lines);
+    this.ga.text_log.clear();
+    this.ga.text_log.addAll(lines);
+    this.flushedLines = lines.size();
+    this.restored = checkpoint;
+  }
+
+  public void start() throws IOException {
+
+    if (this.restored == null) {
+      logParameters();
+      this.ga.log("\nEvolution begins...");
+    } else this.ga.log("\nEvolution resumes...");
+    if (this.checkpointInterval > 0)
+      this.checkpointer =
+          Executors.newSingleThreadExecutor(
+              r -> {
+                var thread = new Thread(r, "checkpoint-" + this.filename);
+                thread.setDaemon(true);
+                return thread;
+              });
+    Population final_pa;
+    int generations;
+    try {
+      if (this.islands > 1) {
+        var model = createIslandModel();
+        var populations = new ArrayList<MyPopulation>();
+        for (int k = 0; k < this.islands; k++) {
+          var algorithm = this.algorithms.get(k);
+          // the island's individuals draw from the same streams as its algorithm
+          var island =
+              new RunContext(
+                  this.voice, this.evals, algorithm.getRandom(), this.context.getCache());
+          algorithm.setStagnation(this.createStagnation(island));
+          algorithm.setDuplicates(this.duplicates);
+          if (this.restored == null)
+            populations.add(
+                this.createPopulation(
+                    island,
+                    this.populationLimit / this.islands,
+                    algorithm.getRandom().forGeneration(0)));
+          else {
+            populations.add(this.adopt(this.restored.restore(k, island, this.elitismRate), island));
+            algorithm.setGenerationsEvolved(this.restored.getGenerationsEvolved(k));
+          }
+        }
+        this.lastCheckpoint = model.getGenerationsEvolved();
+        model.setEpochListener(this::checkpoint);
+        final_pa = model.evolve(populations, this::isSatisfied);
+        generations = model.getGenerationsEvolved();
+      } else {
+        MyPopulation init_population;
+        this.ga.setStagnation(this.createStagnation(this.context));
+        this.ga.setDuplicates(this.duplicates);
+        if (this.restored == null)
+          init_population =
+              this.createPopulation(
+                  this.context, this.populationLimit, this.random.forGeneration(0));
+        else {
+          init_population =
+              this.adopt(this.restored.restore(0, this.context, this.elitismRate), this.context);
+          this.ga.setGenerationsEvolved(this.restored.getGenerationsEvolved(0));
+        }
+        this.lastCheckpoint = this.ga.getGenerationsEvolved();
+        final_pa =
+            this.ga.evolve(
+                init_population,
+                p -> {
+                  if (this.condition.isSatisfied(p)) return true;
+                  this.checkpoint(List.of((MyPopulation) p));
+                  return false;
+                });
+        generations = this.ga.getGenerationsEvolved();
+      }
+    } finally {
+      if (this.checkpointer != null) {
+        this.pendingCheckpoint.exceptionally(ex -> null).join();
+        this.checkpointer.shutdown();
+      }
+    }
 
     this.fittest = (Individual) final_pa.getFittestChromosome();
 
     this.ga.log("Fittest = \n" + fittest);
     this.ga.log(String.format("fitness = %3f", fittest.getFitness()));
-    this.ga.log("generation = " + this.ga.getGenerationsEvolved());
+    this.ga.log("generation = " + generations);
+    if (this.stagnation != null)
+      this.ga.log(
+          "stagnation responses = "
+              + this.algorithms.stream().mapToInt(a -> a.getStagnation().getResponses()).sum());
+    if (final_pa instanceof MyPopulation population) {
+      var diversity = Diversity.of(population);
+      this.ga.log(
+          String.format(
+              "unique genomes = %d / %d, entropy = %.3f bits per locus",
+              diversity.unique(),
+              population.getPopulationSize(),
+              diversity.getMeanEntropy()));
+    }
+    var cache = this.context.getCache();
+    this.ga.log(
+        String.format(
+            "fitness cache = %d hits / %d misses (%.1f%%)",
+            cache.getHits(), cache.getMisses(), cache.getHitRate() * 100));
+    // a completed run has nothing left to resume
+    Files.deleteIfExists(DATA_FOLDER.resolve(this.filename + ".ckpt"));
+  }
+
+  /**
+   * Checkpoint the populations on a background thread if due. Log lines since the last checkpoint
+   * are appended to the text file first, so that the file holds at least the lines the checkpoint
+   * refers to.
+   *
+   * @param populations populations of all islands, or the single population.
+   */
+  private void checkpoint(List<MyPopulation> populations) {
+
+    var generations =
+        this.algorithms.stream().mapToInt(MyGeneticAlgorithm::getGenerationsEvolved).toArray();
+    var generation = Arrays.stream(generations).max().getAsInt();
+    if (this.checkpointer == null
+        || generation - this.lastCheckpoint < this.checkpointInterval
+        || !this.pendingCheckpoint.isDone()
+        || this.pendingCheckpoint.isCompletedExceptionally()) return;
+    this.lastCheckpoint = generation;
+    List<String> lines;
+    synchronized (this.ga.text_log) {
+      lines = List.copyOf(this.ga.text_log.subList(this.flushedLines, this.ga.text_log.size()));
+    }
+    this.flushedLines += lines.size();
+    var snapshot =
+        Checkpoint.of(
+            this.populationLimit,
+            this.random.getSeed(),
+            this.timestamp,
+            this.flushedLines,
+            generations,
+            populations);
+    var log = DATA_FOLDER.resolve(this.filename + ".txt");
+    var file = DATA_FOLDER.resolve(this.filename + ".ckpt");
+    this.pendingCheckpoint =
+        CompletableFuture.runAsync(
+                () -> {
+                  try {
+                    Files.createDirectories(DATA_FOLDER);
+                    Files.write(log, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    snapshot.write(file);
+                  } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                  }
+                },
+                this.checkpointer)
+            .whenComplete(
+                (r, ex) -> {
+                  if (ex != null)
+                    // the trace of ex carries the failure wrapped by runAsync, if any
+                    Logger.getLogger(Explorer.class.getName())
+                        .log(Level.SEVERE, "Checkpointing stopped", ex);
+                });
+  }
+
+  private IslandModel createIslandModel() {
+
+    var algorithms = new ArrayList<MyGeneticAlgorithm>();
+    for (int k = 0; k < this.islands; k++) {
+      var island = createAlgorithm(this.random.derive(k));
+      island.setLabel("#" + k);
+      island.text_log = this.ga.text_log;
+      algorithms.add(island);
+    }
+    this.algorithms = algorithms;
+    return new IslandModel(algorithms, this.migrationInterval, this.migrants, this.topology);
   }
 
   public void saveScore() {
@@ -126,6 +557,7 @@ public class Explorer {
   public void saveData() throws IOException {
 
     Files.write(DATA_FOLDER.resolve(this.filename + ".txt"), this.ga.text_log);
+    GenerationMetrics.writeCsv(DATA_FOLDER.resolve(this.filename + ".csv"), this.algorithms);
   }
 
   private void logParameters() {
@@ -141,6 +573,20 @@ public class Explorer {
     this.ga.log("Generation Limit = " + this.generationLimit);
     this.ga.log("Max Mutation Loci = " + this.max_mutation_loci);
     this.ga.log("Max Mutated Voices = " + this.max_mutation_voices);
+    this.ga.log("Threads = " + this.ga.getParallelism());
+    if (this.islands > 1) {
+      this.ga.log("Islands = " + this.islands);
+      this.ga.log("Migration Interval = " + this.migrationInterval);
+      this.ga.log("Migrants = " + this.migrants);
+      this.ga.log("Topology = " + this.topology);
+    }
+    this.ga.log("Initialization = " + this.initialization);
+    if (this.steadyState != null) this.ga.log("Steady State = " + this.steadyState);
+    else if (this.arena != null) this.ga.log("Arena = " + this.arena);
+    if (this.stagnation != null) this.ga.log("Stagnation = " + this.createStagnation(this.context));
+    if (this.duplicates != null) this.ga.log("Duplicates = " + this.duplicates);
+    this.ga.log("Batch evaluation = " + (BatchEvaluation.isVectorized() ? "vector" : "scalar"));
+    this.ga.log("Seed = " + this.random.getSeed());
     this.ga.log("Evaluation:");
     this.evals.forEach(e -> ga.log(" - " + e));
   }
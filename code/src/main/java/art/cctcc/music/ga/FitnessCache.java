@@ -0,0 +1,145 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of evaluated terms shared by the individuals of a run, so that duplicated
+ * chromosomes are only evaluated once.
+ *
+ * <p>Entries are keyed by the Zobrist hash of the genes, i.e. the exclusive or of a random number
+ * for each gene index and pitch, which offspring update from their parents' hash for the changed
+ * genes only. The table is direct-mapped: a new entry evicts whatever occupied its slot. Genes are
+ * compared on a hit, so a colliding key never yields a wrong fitness.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public final class FitnessCache {
+
+  public static final int DEFAULT_CAPACITY = 1 << 12;
+
+  private static final class Entry {
+
+    private final long key;
+    private final int[] genes;
+    private final FitnessTerms terms;
+
+    private Entry(long key, int[] genes, FitnessTerms terms) {
+
+      this.key = key;
+      this.genes = genes;
+      this.terms = terms;
+    }
+  }
+
+  private final AtomicReferenceArray<Entry> table;
+  private final int mask;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * @param capacity number of entries, rounded up to a power of 2; 0 disables caching.
+   */
+  public FitnessCache(int capacity) {
+
+    if (capacity < 0) throw new IllegalArgumentException("FitnessCache: Negative capacity.");
+    var size = capacity <= 1 ? capacity : Integer.highestOneBit(capacity - 1) << 1;
+    this.table = new AtomicReferenceArray<>(size);
+    this.mask = this.table.length() - 1;
+  }
+
+  /**
+   * Random number of a pitch at a gene index, derived statelessly so that every run and thread
+   * agrees on it.
+   *
+   * @param index gene index.
+   * @param pitch pitch ordinal.
+   * @return Zobrist number.
+   */
+  static long zobrist(int index, int pitch) {
+
+    var z = 0x9e3779b97f4a7c15L * ((long) index * Pitch.values().length + pitch + 1);
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Zobrist hash of a gene range updated for changed genes.
+   *
+   * @param hash hash of genes <code>from</code>.
+   * @param from genes the hash was computed for.
+   * @param to new genes.
+   * @param start first gene index which may differ.
+   * @param end index after the last gene which may differ.
+   * @return hash of genes <code>to</code>.
+   */
+  static long rehash(long hash, int[] from, int[] to, int start, int end) {
+
+    for (int i = start; i < end; i++)
+      if (from[i] != to[i]) hash ^= zobrist(i, from[i]) ^ zobrist(i, to[i]);
+    return hash;
+  }
+
+  static long hash(int[] genes) {
+
+    var hash = 0L;
+    for (int i = 0; i < genes.length; i++) hash ^= zobrist(i, genes[i]);
+    return hash;
+  }
+
+  FitnessTerms get(long key, int[] genes) {
+
+    if (this.table.length() == 0) return null;
+    var entry = this.table.get((int) key & this.mask);
+    if (entry != null && entry.key == key && Arrays.equals(entry.genes, genes)) {
+      this.hits.increment();
+      return entry.terms;
+    }
+    this.misses.increment();
+    return null;
+  }
+
+  void put(long key, int[] genes, FitnessTerms terms) {
+
+    if (this.table.length() == 0) return;
+    this.table.set((int) key & this.mask, new Entry(key, genes, terms));
+  }
+
+  public int getCapacity() {
+
+    return this.table.length();
+  }
+
+  public long getHits() {
+
+    return this.hits.sum();
+  }
+
+  public long getMisses() {
+
+    return this.misses.sum();
+  }
+
+  public double getHitRate() {
+
+    var lookups = this.getHits() + this.getMisses();
+    return lookups == 0 ? 0.0 : (double) this.getHits() / lookups;
+  }
+}
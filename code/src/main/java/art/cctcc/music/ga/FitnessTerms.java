@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.stream.IntStream;
+
+/**
+ * Evaluations of an individual decomposed into terms of chord positions.
+ *
+ * <p>A row of terms is kept for every chord position, holding the terms of each evaluation of the
+ * run as given by {@link Evaluation#computeTerms}, together with their totals. Since a row only
+ * depends on its own chord and the two before it, the terms of an offspring are those of its
+ * parents with the rows next to the changed chords recomputed, and its fitness costs in
+ * proportion to the changed chords instead of the chord number. Counts are integers, so the
+ * fitness is exactly the one evaluated on the whole chromosome.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+final class FitnessTerms {
+
+  private final RunContext context;
+  private final int chords;
+  private final int width;
+  private final int[] rows;
+  private final int[] totals;
+
+  private FitnessTerms(RunContext context, int chords, int[] rows, int[] totals) {
+
+    this.context = context;
+    this.chords = chords;
+    this.width = totals.length;
+    this.rows = rows;
+    this.totals = totals;
+  }
+
+  /**
+   * Compute all terms of an individual.
+   *
+   * @param idv individual to evaluate.
+   * @return terms of the individual.
+   */
+  static FitnessTerms of(Individual idv) {
+
+    var width = idv.getContext().getTermOffsets()[idv.getContext().getEvals().size()];
+    var terms =
+        new FitnessTerms(
+            idv.getContext(),
+            idv.getChordNumber(),
+            new int[idv.getChordNumber() * width],
+            new int[width]);
+    for (int pos = 0; pos < terms.chords; pos++) terms.recompute(idv, pos);
+    return terms;
+  }
+
+  /**
+   * Take terms computed row by row elsewhere, summing up their totals.
+   *
+   * @param context run of the individual.
+   * @param chords chord number of the individual.
+   * @param rows terms of each chord position, owned by the new instance.
+   * @return terms of the individual.
+   */
+  static FitnessTerms of(RunContext context, int chords, int[] rows) {
+
+    var width = context.getTermOffsets()[context.getEvals().size()];
+    var terms = new FitnessTerms(context, chords, rows, new int[width]);
+    for (int i = 0; i < rows.length; i++) terms.totals[i % width] += rows[i];
+    return terms;
+  }
+
+  /**
+   * Derive the terms of an individual differing from this one at some chords.
+   *
+   * @param idv individual derived from the one of these terms.
+   * @param changed positions of changed chords, in any order.
+   * @return terms of the individual.
+   */
+  FitnessTerms patch(Individual idv, int[] changed) {
+
+    var terms =
+        new FitnessTerms(this.context, this.chords, this.rows.clone(), this.totals.clone());
+    var affected = new boolean[this.chords];
+    for (var c : changed)
+      for (int pos = c; pos < Math.min(c + 3, this.chords); pos++) affected[pos] = true;
+    for (int pos = 0; pos < this.chords; pos++) if (affected[pos]) terms.recompute(idv, pos);
+    return terms;
+  }
+
+  /**
+   * Derive the terms of an individual made of the chords of one parent before a locus and of the
+   * other parent from the locus on.
+   *
+   * @param idv individual derived from both parents.
+   * @param head terms of the parent giving the chords before the locus.
+   * @param tail terms of the parent giving the chords from the locus on.
+   * @param locus first chord position taken from the tail.
+   * @return terms of the individual.
+   */
+  static FitnessTerms splice(Individual idv, FitnessTerms head, FitnessTerms tail, int locus) {
+
+    var rows = new int[head.rows.length];
+    var split = locus * head.width;
+    System.arraycopy(head.rows, 0, rows, 0, split);
+    System.arraycopy(tail.rows, split, rows, split, rows.length - split);
+    var terms = new FitnessTerms(head.context, head.chords, rows, new int[head.width]);
+    for (int i = 0; i < rows.length; i++) terms.totals[i % terms.width] += rows[i];
+    for (int pos = locus; pos < Math.min(locus + 2, terms.chords); pos++) terms.recompute(idv, pos);
+    return terms;
+  }
+
+  private void recompute(Individual idv, int pos) {
+
+    var offsets = this.context.getTermOffsets();
+    var evals = this.context.getEvals();
+    var row = pos * this.width;
+    for (int i = 0; i < this.width; i++) this.totals[i] -= this.rows[row + i];
+    for (int e = 0; e < evals.size(); e++)
+      evals
+          .get(e)
+          .computeTerms(
+              idv.genes(), idv.getVoice(), this.chords, pos, this.rows, row + offsets[e]);
+    for (int i = 0; i < this.width; i++) this.totals[i] += this.rows[row + i];
+  }
+
+  /**
+   * Direct access to the rows for packing them, e.g. into a {@link GenomeArena}, which must not
+   * modify them.
+   *
+   * @return terms of each chord position.
+   */
+  int[] rows() {
+
+    return this.rows;
+  }
+
+  /**
+   * Count of an evaluation of the run.
+   *
+   * @param index index of the evaluation in {@link RunContext#getEvals()}.
+   * @return count of the evaluation.
+   */
+  int count(int index) {
+
+    return this.context
+        .getEvals()
+        .get(index)
+        .count(this.totals, this.context.getTermOffsets()[index], this.context.getVoice());
+  }
+
+  /**
+   * Fitness summed up in the same order as {@link Individual#fitness()} always did.
+   *
+   * @return fitness.
+   */
+  double fitness() {
+
+    var evals = this.context.getEvals();
+    return 1.0
+        - IntStream.range(0, evals.size())
+            .mapToDouble(e -> evals.get(e).getPenalty(this.count(e)))
+            .filter(penalty -> penalty > 0)
+            .sum();
+  }
+}
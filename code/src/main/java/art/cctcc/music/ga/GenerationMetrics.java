@@ -0,0 +1,208 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Time spent in each phase of every generation, with the throughput and allocation of the
+ * generation and the {@link Diversity} of its population, cheap enough to be kept on in production
+ * runs.
+ *
+ * <p>Phases are timed where they run, so with worker threads their times are summed over threads
+ * and may exceed the wall-clock time of the generation. Allocation is summed over the live threads
+ * of the JVM, so it includes other runs or islands evolving meanwhile.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class GenerationMetrics {
+
+  public enum Phase {
+    SELECTION,
+    CROSSOVER,
+    MUTATION,
+    EVALUATION,
+    ELITISM
+  }
+
+  /**
+   * Metrics of one generation.
+   *
+   * @param generation generation number, counted from 1.
+   * @param nanos time spent in each phase, indexed by {@link Phase#ordinal()}.
+   * @param wall wall-clock time of the generation in nanoseconds.
+   * @param offspring number of offspring bred and evaluated.
+   * @param allocated bytes allocated during the generation, or -1 if not supported by the JVM.
+   * @param diversity diversity of the population bred.
+   */
+  public record Generation(
+      int generation,
+      long[] nanos,
+      long wall,
+      int offspring,
+      long allocated,
+      Diversity diversity) {
+
+    public double getEvaluationsPerSecond() {
+
+      return this.wall == 0 ? 0.0 : this.offspring * 1e9 / this.wall;
+    }
+
+    public double getAllocationRate() {
+
+      return this.allocated < 0 || this.wall == 0 ? -1.0 : this.allocated * 1e9 / this.wall;
+    }
+  }
+
+  private static final String CSV_HEADER =
+      "island,generation,selection_ms,crossover_ms,mutation_ms,evaluation_ms,elitism_ms,"
+          + "total_ms,offspring,evals_per_sec,allocated_mb,alloc_mb_per_sec,unique,"
+          + "mean_entropy_bits,min_entropy_bits";
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+              && threads.isThreadAllocatedMemorySupported()
+          ? threads
+          : null;
+
+  private final LongAdder[] nanos =
+      Stream.generate(LongAdder::new).limit(Phase.values().length).toArray(LongAdder[]::new);
+  private final List<Generation> generations = new ArrayList<>();
+  private long start;
+  private long allocatedAtStart;
+
+  /** Start timing a generation. */
+  void begin() {
+
+    this.allocatedAtStart = allocatedBytes();
+    this.start = System.nanoTime();
+  }
+
+  /**
+   * Account the time since a timestamp to a phase.
+   *
+   * @param phase phase which ran since the timestamp.
+   * @param since timestamp of {@link System#nanoTime()} when the phase began.
+   * @return current timestamp, from which the next phase may be timed.
+   */
+  long lap(Phase phase, long since) {
+
+    var now = System.nanoTime();
+    this.nanos[phase.ordinal()].add(now - since);
+    return now;
+  }
+
+  /**
+   * Finish timing a generation, and measure the diversity of its population after the timing.
+   *
+   * @param generation generation number.
+   * @param offspring number of offspring bred in the generation.
+   * @param population population bred.
+   */
+  void end(int generation, int offspring, MyPopulation population) {
+
+    var wall = System.nanoTime() - this.start;
+    var allocated = allocatedBytes();
+    var phases = Arrays.stream(this.nanos).mapToLong(LongAdder::sumThenReset).toArray();
+    var diversity = Diversity.of(population);
+    synchronized (this.generations) {
+      this.generations.add(
+          new Generation(
+              generation,
+              phases,
+              wall,
+              offspring,
+              allocated < 0 ? -1 : allocated - this.allocatedAtStart,
+              diversity));
+    }
+  }
+
+  private static long allocatedBytes() {
+
+    return THREADS == null || !THREADS.isThreadAllocatedMemoryEnabled()
+        ? -1
+        : Arrays.stream(THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds()))
+            .filter(bytes -> bytes > 0)
+            .sum();
+  }
+
+  /**
+   * Get the diversity measured at the end of the last generation.
+   *
+   * @return diversity of the population bred last, or null before the first generation.
+   */
+  public Diversity getDiversity() {
+
+    synchronized (this.generations) {
+      return this.generations.isEmpty()
+          ? null
+          : this.generations.get(this.generations.size() - 1).diversity();
+    }
+  }
+
+  public List<Generation> getGenerations() {
+
+    synchronized (this.generations) {
+      return List.copyOf(this.generations);
+    }
+  }
+
+  /**
+   * Write metrics of all generations as CSV, one row per generation and algorithm.
+   *
+   * @param path file to write.
+   * @param algorithms algorithms of the run, told apart by their labels.
+   * @throws IOException if the file cannot be written.
+   */
+  public static void writeCsv(Path path, Collection<MyGeneticAlgorithm> algorithms)
+      throws IOException {
+
+    var lines = new ArrayList<String>();
+    lines.add(CSV_HEADER);
+    for (var ga : algorithms)
+      for (var g : ga.getMetrics().getGenerations())
+        lines.add(
+            String.format(
+                Locale.ROOT,
+                "%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%.1f,%.3f,%.1f,%d,%.3f,%.3f",
+                ga.getLabel(),
+                g.generation(),
+                g.nanos()[Phase.SELECTION.ordinal()] / 1e6,
+                g.nanos()[Phase.CROSSOVER.ordinal()] / 1e6,
+                g.nanos()[Phase.MUTATION.ordinal()] / 1e6,
+                g.nanos()[Phase.EVALUATION.ordinal()] / 1e6,
+                g.nanos()[Phase.ELITISM.ordinal()] / 1e6,
+                g.wall() / 1e6,
+                g.offspring(),
+                g.getEvaluationsPerSecond(),
+                g.allocated() / 1048576.0,
+                g.getAllocationRate() / 1048576.0,
+                g.diversity().unique(),
+                g.diversity().getMeanEntropy(),
+                g.diversity().getMinEntropy()));
+    Files.write(path, lines);
+  }
+}
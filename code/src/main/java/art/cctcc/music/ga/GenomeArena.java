@@ -0,0 +1,403 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Genomes of a population packed into flat buffers, with their Zobrist key, fitness and the terms
+ * of their evaluations, see {@link FitnessTerms}, in parallel buffers, instead of an object graph
+ * per individual.
+ *
+ * <p>A note is stored as its offset from the lowest note of its voice's register, in as many bits
+ * as the widest register of the voicing needs, i.e. 4 bits for the registers of {@link
+ * art.cctcc.music.Settings}. Notes of a chord are packed into 64-bit words without straddling
+ * them, so a chord of up to 16 voices takes one long. Terms are counts of a chord position, stored
+ * in a byte each. Buffers are either on the heap or direct, i.e. outside the garbage-collected
+ * heap.
+ *
+ * <p>Slots are indexed by key as they are filled, so duplicates are looked up and the diversity is
+ * measured on the packed words. A genome is only unpacked into an individual when read, e.g. as a
+ * parent, with its terms so that its offspring derive theirs.
+ *
+ * <p>Slots are appended from one thread, while any threads may read filled slots.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public final class GenomeArena {
+
+  public enum Backing {
+    /** Buffers wrapping arrays on the heap. */
+    HEAP,
+    /** Direct buffers outside the heap. */
+    DIRECT
+  }
+
+  private final RunContext context;
+  private final int chord_no;
+  private final int n;
+  private final int[] low;
+  private final int bits;
+  private final long mask;
+  private final int notesPerWord;
+  private final int wordsPerChord;
+  /** Words per genome. */
+  private final int words;
+  /** Terms per genome, i.e. the terms of each chord position. */
+  private final int stride;
+  private final int capacity;
+
+  /** Words of each genome, chord-major. */
+  private final LongBuffer genes;
+  private final LongBuffer keys;
+  private final DoubleBuffer fitness;
+  /** Terms of each genome, chord-major. */
+  private final ByteBuffer terms;
+
+  /** Open-addressing table of the first slot of each distinct genome plus 1, 0 if empty. */
+  private final int[] index;
+  private int distinct;
+
+  private int size;
+
+  /**
+   * @param context run of the genomes.
+   * @param chord_no chord number of the genomes.
+   * @param capacity number of genomes.
+   * @param backing where the buffers are allocated.
+   */
+  public GenomeArena(RunContext context, int chord_no, int capacity, Backing backing) {
+
+    this.context = context;
+    this.chord_no = chord_no;
+    var voice = context.getVoice();
+    this.n = voice.length();
+    this.low = new int[n];
+    var span = 0;
+    for (int v = 0; v < n; v++) {
+      var register = Pitch.getRegister(voice.charAt(v));
+      this.low[v] = register[0].ordinal();
+      span = Math.max(span, register[1].ordinal() - this.low[v]);
+    }
+    this.bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(span));
+    this.mask = (1L << this.bits) - 1;
+    this.notesPerWord = Long.SIZE / this.bits;
+    this.wordsPerChord = (n + this.notesPerWord - 1) / this.notesPerWord;
+    this.words = chord_no * this.wordsPerChord;
+    this.stride = chord_no * context.getTermOffsets()[context.getEvals().size()];
+    this.capacity = capacity;
+    var words = (long) capacity * this.words;
+    var terms = (long) capacity * this.stride;
+    if (capacity < 0
+        || words * Long.BYTES > Integer.MAX_VALUE
+        || terms > Integer.MAX_VALUE
+        || capacity > 1 << 29)
+      throw new IllegalArgumentException("GenomeArena: Invalid capacity " + capacity);
+    if (backing == Backing.DIRECT) {
+      this.genes = direct(words * Long.BYTES).asLongBuffer();
+      this.keys = direct((long) capacity * Long.BYTES).asLongBuffer();
+      this.fitness = direct((long) capacity * Double.BYTES).asDoubleBuffer();
+      this.terms = direct(terms);
+    } else {
+      this.genes = LongBuffer.allocate((int) words);
+      this.keys = LongBuffer.allocate(capacity);
+      this.fitness = DoubleBuffer.allocate(capacity);
+      this.terms = ByteBuffer.allocate((int) terms);
+    }
+    this.index = new int[Integer.highestOneBit(Math.max(8, 2 * capacity - 1)) << 1];
+  }
+
+  private static ByteBuffer direct(long bytes) {
+
+    return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Pack the notes of a word of a chord.
+   *
+   * @param genes chord-major pitch ordinals.
+   * @param pos chord position.
+   * @param w word of the chord.
+   * @return packed notes.
+   */
+  private long pack(int[] genes, int pos, int w) {
+
+    var packed = 0L;
+    for (int k = 0, v = w * this.notesPerWord; k < this.notesPerWord && v < n; k++, v++)
+      packed |= (long) (genes[pos * n + v] - this.low[v]) << (k * this.bits);
+    return packed;
+  }
+
+  /**
+   * Append an individual, evaluating it if not yet evaluated.
+   *
+   * @param idv individual of the run with the chord number of the arena.
+   * @return slot of the individual.
+   */
+  public int add(Individual idv) {
+
+    if (this.size == this.capacity)
+      throw new IllegalStateException("GenomeArena: Full at " + this.capacity);
+    var slot = this.size;
+    var genes = idv.genes();
+    var word = slot * this.words;
+    for (int pos = 0; pos < this.chord_no; pos++)
+      for (int w = 0; w < this.wordsPerChord; w++) this.genes.put(word++, pack(genes, pos, w));
+    this.keys.put(slot, idv.getKey());
+    this.fitness.put(slot, idv.getFitness());
+    var rows = idv.getTerms().rows();
+    for (int i = 0; i < this.stride; i++) {
+      if (rows[i] != (byte) rows[i])
+        throw new IllegalStateException("GenomeArena: Term " + rows[i] + " exceeds a byte");
+      this.terms.put(slot * this.stride + i, (byte) rows[i]);
+    }
+    this.index(slot);
+    this.size++;
+    return slot;
+  }
+
+  /**
+   * Append the genome in a slot of this arena to another arena of the same run.
+   *
+   * @param slot slot in this arena.
+   * @param target arena to append to.
+   * @return slot in the target arena.
+   */
+  public int copy(int slot, GenomeArena target) {
+
+    if (target.size == target.capacity)
+      throw new IllegalStateException("GenomeArena: Full at " + target.capacity);
+    var to = target.size;
+    target.genes.put(to * this.words, this.genes, slot * this.words, this.words);
+    target.keys.put(to, this.keys.get(slot));
+    target.fitness.put(to, this.fitness.get(slot));
+    target.terms.put(to * this.stride, this.terms, slot * this.stride, this.stride);
+    target.index(to);
+    target.size++;
+    return to;
+  }
+
+  /**
+   * Index a filled slot unless an earlier slot holds the same genome.
+   *
+   * @param slot slot just filled.
+   */
+  private void index(int slot) {
+
+    var key = this.keys.get(slot);
+    var mask = this.index.length - 1;
+    var i = (int) key & mask;
+    for (; this.index[i] != 0; i = (i + 1) & mask) {
+      var other = this.index[i] - 1;
+      if (this.keys.get(other) == key && this.isSame(other, slot)) return;
+    }
+    this.index[i] = slot + 1;
+    this.distinct++;
+  }
+
+  private boolean isSame(int slot, int other) {
+
+    for (int w = 0; w < this.words; w++)
+      if (this.genes.get(slot * this.words + w) != this.genes.get(other * this.words + w))
+        return false;
+    return true;
+  }
+
+  /**
+   * Check if a genome is in a filled slot, comparing packed words without unpacking them.
+   *
+   * @param idv individual of the run with the chord number of the arena.
+   * @return true if a slot holds the same genes.
+   */
+  public boolean contains(Individual idv) {
+
+    var key = idv.getKey();
+    var genes = idv.genes();
+    var mask = this.index.length - 1;
+    for (int i = (int) key & mask; this.index[i] != 0; i = (i + 1) & mask) {
+      var slot = this.index[i] - 1;
+      if (this.keys.get(slot) != key) continue;
+      var word = slot * this.words;
+      var same = true;
+      for (int pos = 0; same && pos < this.chord_no; pos++)
+        for (int w = 0; same && w < this.wordsPerChord; w++)
+          same = this.genes.get(word++) == pack(genes, pos, w);
+      if (same) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Unpack the genes in a slot.
+   *
+   * @param slot slot of the genome.
+   * @return chord-major pitch ordinals.
+   */
+  public int[] getGenes(int slot) {
+
+    var genes = new int[this.chord_no * n];
+    var word = slot * this.words;
+    for (int pos = 0; pos < this.chord_no; pos++)
+      for (int w = 0; w < this.wordsPerChord; w++) {
+        var packed = this.genes.get(word++);
+        for (int k = 0, v = w * this.notesPerWord; k < this.notesPerWord && v < n; k++, v++)
+          genes[pos * n + v] = this.low[v] + (int) (packed >>> (k * this.bits) & this.mask);
+      }
+    return genes;
+  }
+
+  /**
+   * Unpack the individual in a slot with its terms, neither evaluating nor caching them.
+   *
+   * @param slot slot of the genome.
+   * @return new individual of the run.
+   */
+  public Individual get(int slot) {
+
+    return new Individual(
+        this.context, this.getGenes(slot), this.keys.get(slot), this.getTerms(slot));
+  }
+
+  /**
+   * Unpack the terms in a slot.
+   *
+   * @param slot slot of the genome.
+   * @return new terms of the genome.
+   */
+  FitnessTerms getTerms(int slot) {
+
+    var rows = new int[this.stride];
+    for (int i = 0; i < rows.length; i++) rows[i] = this.terms.get(slot * this.stride + i);
+    return FitnessTerms.of(this.context, this.chord_no, rows);
+  }
+
+  /**
+   * Get the Zobrist hash of the genome in a slot.
+   *
+   * @param slot slot of the genome.
+   * @return 64-bit hash, see {@link Individual#getKey()}.
+   */
+  public long getKey(int slot) {
+
+    return this.keys.get(slot);
+  }
+
+  public double getFitness(int slot) {
+
+    return this.fitness.get(slot);
+  }
+
+  /**
+   * Get the fitness of all genomes.
+   *
+   * @return new array in the order of slots.
+   */
+  public double[] getFitnesses() {
+
+    var result = new double[this.size];
+    this.fitness.get(0, result);
+    return result;
+  }
+
+  /**
+   * Count of an evaluation of the genome in a slot.
+   *
+   * @param slot slot of the genome.
+   * @param index index of the evaluation in {@link RunContext#getEvals()}.
+   * @return count of the evaluation.
+   */
+  public int getCount(int slot, int index) {
+
+    return this.getTerms(slot).count(index);
+  }
+
+  /**
+   * Measure the diversity of the genomes in a single pass over the packed words.
+   *
+   * @return distinct genomes and entropy of each locus.
+   */
+  public Diversity getDiversity() {
+
+    var counts = new int[this.chord_no * n * Diversity.PITCHES];
+    for (int slot = 0; slot < this.size; slot++) {
+      var word = slot * this.words;
+      for (int pos = 0; pos < this.chord_no; pos++)
+        for (int w = 0; w < this.wordsPerChord; w++) {
+          var packed = this.genes.get(word++);
+          for (int k = 0, v = w * this.notesPerWord; k < this.notesPerWord && v < n; k++, v++) {
+            var pitch = this.low[v] + (int) (packed >>> (k * this.bits) & this.mask);
+            counts[(pos * n + v) * Diversity.PITCHES + pitch]++;
+          }
+        }
+    }
+    return Diversity.of(this.distinct, counts, this.size);
+  }
+
+  /**
+   * Count the distinct genomes.
+   *
+   * @return number of filled slots without counting duplicates.
+   */
+  public int getDistinct() {
+
+    return this.distinct;
+  }
+
+  public void clear() {
+
+    Arrays.fill(this.index, 0);
+    this.distinct = 0;
+    this.size = 0;
+  }
+
+  public int size() {
+
+    return this.size;
+  }
+
+  public int getCapacity() {
+
+    return this.capacity;
+  }
+
+  public RunContext getContext() {
+
+    return this.context;
+  }
+
+  public int getChordNumber() {
+
+    return this.chord_no;
+  }
+
+  /**
+   * Bytes taken by the buffers and the index.
+   *
+   * @return size of genes, keys, fitness, terms and index at full capacity.
+   */
+  public long getBytes() {
+
+    return (long) this.genes.capacity() * Long.BYTES
+        + (long) this.keys.capacity() * Long.BYTES
+        + (long) this.fitness.capacity() * Double.BYTES
+        + this.terms.capacity()
+        + (long) this.index.length * Integer.BYTES;
+  }
+}
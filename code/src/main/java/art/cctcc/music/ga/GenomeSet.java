@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+/**
+ * Multiset of genomes in an open-addressing table, hashed by their Zobrist key and told apart by
+ * their genes, see {@link Individual#equals(Object)}.
+ *
+ * <p>Keys are mixed well enough to index the table directly, so a lookup mostly costs one key
+ * comparison and no allocation, unlike a hash set of boxed entries.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+final class GenomeSet {
+
+  private Individual[] genomes;
+  /** Copies of the genome in each slot. */
+  private int[] copies;
+  private int distinct;
+
+  /**
+   * @param expected number of genomes expected, for sizing the table.
+   */
+  GenomeSet(int expected) {
+
+    var capacity = Integer.highestOneBit(Math.max(16, 2 * expected - 1)) << 1;
+    this.genomes = new Individual[capacity];
+    this.copies = new int[capacity];
+  }
+
+  /**
+   * Find the slot of a genome, or the empty slot where it would be put.
+   *
+   * @param idv genome to look up.
+   * @return slot index.
+   */
+  private int slot(Individual idv) {
+
+    var mask = this.genomes.length - 1;
+    var i = (int) idv.getKey() & mask;
+    while (this.genomes[i] != null && !this.genomes[i].equals(idv)) i = (i + 1) & mask;
+    return i;
+  }
+
+  /**
+   * Add a copy of a genome.
+   *
+   * @param idv genome to add.
+   * @return true if no copy was in the set before.
+   */
+  boolean add(Individual idv) {
+
+    var i = this.slot(idv);
+    if (this.genomes[i] != null) {
+      this.copies[i]++;
+      return false;
+    }
+    this.genomes[i] = idv;
+    this.copies[i] = 1;
+    if (++this.distinct * 2 > this.genomes.length) this.grow();
+    return true;
+  }
+
+  /**
+   * Remove a copy of a genome.
+   *
+   * @param idv genome to remove.
+   * @return true if it was the last copy.
+   */
+  boolean remove(Individual idv) {
+
+    var i = this.slot(idv);
+    if (this.genomes[i] == null || --this.copies[i] > 0) return false;
+    this.distinct--;
+    // shift back the genomes probed past the emptied slot
+    var mask = this.genomes.length - 1;
+    for (int j = (i + 1) & mask; this.genomes[j] != null; j = (j + 1) & mask) {
+      var home = (int) this.genomes[j].getKey() & mask;
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        this.genomes[i] = this.genomes[j];
+        this.copies[i] = this.copies[j];
+        i = j;
+      }
+    }
+    this.genomes[i] = null;
+    this.copies[i] = 0;
+    return true;
+  }
+
+  boolean contains(Individual idv) {
+
+    return this.genomes[this.slot(idv)] != null;
+  }
+
+  /**
+   * Count the distinct genomes.
+   *
+   * @return number of genomes without counting copies.
+   */
+  int size() {
+
+    return this.distinct;
+  }
+
+  private void grow() {
+
+    var genomes = this.genomes;
+    var copies = this.copies;
+    this.genomes = new Individual[2 * genomes.length];
+    this.copies = new int[2 * genomes.length];
+    for (int i = 0; i < genomes.length; i++)
+      if (genomes[i] != null) {
+        var j = this.slot(genomes[i]);
+        this.genomes[j] = genomes[i];
+        this.copies[j] = copies[i];
+      }
+  }
+}
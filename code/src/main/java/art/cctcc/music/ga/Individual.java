@@ -16,146 +16,424 @@
 package art.cctcc.music.ga;
 
 import static art.cctcc.music.Settings.*;
-import art.cctcc.music.utils.musicxml.IndividualScore;
+import art.cctcc.music.utils.musicxml.StreamingScore;
 import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 import org.apache.commons.math3.exception.util.LocalizedFormats;
-import org.apache.commons.math3.genetics.AbstractListChromosome;
+import org.apache.commons.math3.genetics.Chromosome;
 import org.apache.commons.math3.genetics.InvalidRepresentationException;
-import org.apache.commons.math3.util.Pair;
 
 /**
+ * Chromosome of chord-major pitch ordinals, i.e. the note of voice <code>v</code> in chord
+ * <code>c</code> is stored at <code>c * voice.length() + v</code> of a primitive array. The voice
+ * types and evaluations come from the {@link RunContext} the individual belongs to.
+ *
  * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
  */
-public class Individual extends AbstractListChromosome<Integer> {
+public class Individual extends Chromosome {
 
-  public static String VOICE = "SATB";
   public static boolean TRACING;
-  public static List<Evaluation> EVALS = List.of(Evaluation.values());
 
-  private String progression;
-  private String series;
+  /** Draws of a chord in {@link #getRandomWalkChromosome} before giving up its rules. */
+  static final int WALK_ATTEMPTS = 256;
+
+  private final RunContext context;
+  private final String voice;
+  private final int[] genes;
+
+  /** Zobrist hash of the genes, see {@link FitnessCache}. */
+  private final long key;
+
+  // Lazily derived from the immutable genes; racing threads compute identical values.
+  private volatile String progression;
+  private volatile String series;
+  private volatile FitnessTerms terms;
+  private volatile int[] chord_keys;
+
+  /** Derives the terms from the parents' ones, dropped once the terms are known. */
+  private volatile Function<Individual, FitnessTerms> derivation;
 
-  public Individual(int chord_no) {
+  public Individual(RunContext context, int chord_no, SplittableRandom random) {
 
-    super(Individual.getRandomChromosome(chord_no));
+    this(context, Individual.getRandomChromosome(context.getVoice(), chord_no, random));
   }
 
-  public Individual(List<Integer> representation) throws InvalidRepresentationException {
+  public Individual(RunContext context, List<Integer> representation)
+      throws InvalidRepresentationException {
 
-    super(representation);
+    this(context, representation.stream().mapToInt(Integer::intValue).toArray());
+    checkValidity(this.voice, this.genes);
   }
 
-  @Override
-  public AbstractListChromosome<Integer> newFixedLengthChromosome(
-      List<Integer> chromosomeRepresentation) {
+  /**
+   * Trusted constructor for chromosomes produced by operators, which are known to keep every note
+   * in its register. The array is owned by the new instance and must not be modified afterwards.
+   *
+   * @param context run the individual belongs to.
+   * @param genes chord-major pitch ordinals.
+   */
+  Individual(RunContext context, int[] genes) {
+
+    this(context, genes, FitnessCache.hash(genes));
+  }
+
+  /**
+   * Trusted construction of an individual whose key and terms are known, e.g. unpacked from a
+   * {@link GenomeArena}, without evaluating nor caching them.
+   *
+   * @param context run the individual belongs to.
+   * @param genes chord-major pitch ordinals owned by the new instance.
+   * @param key Zobrist hash of the genes.
+   * @param terms terms of the genes.
+   */
+  Individual(RunContext context, int[] genes, long key, FitnessTerms terms) {
+
+    this(context, genes, key);
+    this.terms = terms;
+  }
+
+  private Individual(RunContext context, int[] genes, long key) {
+
+    this.context = context;
+    this.voice = context.getVoice();
+    this.genes = genes;
+    this.key = key;
+  }
+
+  /**
+   * Trusted construction of an individual of the same run, e.g. an offspring.
+   *
+   * @param genes chord-major pitch ordinals owned by the new instance.
+   * @return new individual.
+   */
+  Individual withGenes(int[] genes) {
+
+    return new Individual(this.context, genes);
+  }
+
+  /**
+   * Trusted construction of an offspring differing from this individual at specified chords, whose
+   * fitness is derived from the terms of this individual.
+   *
+   * @param genes chord-major pitch ordinals owned by the new instance.
+   * @param changed positions of the chords which may differ.
+   * @return new individual.
+   */
+  Individual withGenes(int[] genes, int[] changed) {
+
+    var key = this.key;
+    for (var c : changed)
+      key =
+          FitnessCache.rehash(
+              key, this.genes, genes, c * voice.length(), (c + 1) * voice.length());
+    var child = new Individual(this.context, genes, key);
+    child.derivation = c -> this.getTerms().patch(c, changed);
+    return child;
+  }
+
+  /**
+   * Trusted construction of an offspring taking the chords of this individual before the locus
+   * and those of another from the locus on.
+   *
+   * @param tail individual giving the chords from the locus on.
+   * @param locus first chord position taken from the tail.
+   * @param genes chord-major pitch ordinals owned by the new instance.
+   * @return new individual.
+   */
+  Individual withGenes(Individual tail, int locus, int[] genes) {
+
+    // rehash whichever side of the locus is shorter
+    var split = locus * voice.length();
+    var key =
+        split < genes.length - split
+            ? FitnessCache.rehash(tail.key, tail.genes, genes, 0, split)
+            : FitnessCache.rehash(this.key, this.genes, genes, split, genes.length);
+    var child = new Individual(this.context, genes, key);
+    child.derivation = c -> FitnessTerms.splice(c, this.getTerms(), tail.getTerms(), locus);
+    return child;
+  }
+
+  /**
+   * Get the terms of the evaluations, from the fitness cache of the run or derived from the
+   * parents' when possible.
+   *
+   * @return terms of this individual.
+   */
+  FitnessTerms getTerms() {
+
+    if (this.terms == null) {
+      var cache = this.context.getCache();
+      var cached = cache.get(this.key, this.genes);
+      if (cached == null) {
+        var derive = this.derivation;
+        cached = derive == null ? FitnessTerms.of(this) : derive.apply(this);
+        cache.put(this.key, this.genes, cached);
+      }
+      this.terms = cached;
+      this.derivation = null;
+    }
+    return this.terms;
+  }
+
+  /**
+   * Check if the terms have to be computed on the whole chromosome, i.e. are neither known, cached
+   * nor derived from the parents' ones, taking them from the fitness cache of the run if there.
+   *
+   * @return true if {@link #getTerms()} would compute all terms.
+   */
+  boolean needsTerms() {
+
+    if (this.terms != null || this.derivation != null) return false;
+    var cached = this.context.getCache().get(this.key, this.genes);
+    if (cached == null) return true;
+    this.terms = cached;
+    return false;
+  }
+
+  /**
+   * Set the terms computed elsewhere, e.g. by {@link BatchEvaluation}, caching them.
+   *
+   * @param terms terms of this individual.
+   */
+  void setTerms(FitnessTerms terms) {
+
+    this.context.getCache().put(this.key, this.genes, terms);
+    this.terms = terms;
+    this.derivation = null;
+  }
+
+  /**
+   * Get the Zobrist hash of the genes, maintained incrementally by operators.
+   *
+   * @return 64-bit hash.
+   */
+  public long getKey() {
+
+    return this.key;
+  }
+
+  public RunContext getContext() {
+
+    return this.context;
+  }
+
+  /**
+   * Get voice types of this individual.
+   *
+   * @return voice types from top to bottom, e.g. <code>"SATB"</code>.
+   */
+  public String getVoice() {
 
-    return new Individual(chromosomeRepresentation);
+    return this.voice;
   }
 
+  /**
+   * Fitness as 1 minus the penalties of all evaluations, each of which is {@link
+   * Evaluation#evaluate(Individual)}, computed from the terms of {@link #getTerms()}.
+   */
   @Override
   public double fitness() {
 
-    var fitness =
-        1.0
-            - EVALS.stream()
-                .map(e -> Pair.create(e, e.evaluate(this)))
-                .filter(p -> p.getValue() > 0)
-                .mapToDouble(Pair::getValue)
-                .sum();
-
-    return fitness;
+    return this.getTerms().fitness();
   }
 
   public String getProgression() {
 
-    if (this.progression == null)
-      this.progression =
-          String.format(
-              "[%s]",
-              IntStream.range(0, getChordNumber())
-                  .mapToObj(this::getChord)
-                  .map(ords -> "" + Pitch.triadChordTest(ords) + Pitch.seventhChordTest(ords))
-                  .map(str -> str.replaceFirst("X", ""))
-                  .collect(Collectors.joining()));
+    if (this.progression == null) {
+      var keys = this.getChordKeys();
+      var symbols = new char[keys.length + 2];
+      symbols[0] = '[';
+      for (int i = 0; i < keys.length; i++)
+        symbols[i + 1] = ChordTable.getProgressionSymbol(keys[i]);
+      symbols[symbols.length - 1] = ']';
+      this.progression = new String(symbols);
+    }
     return this.progression;
   }
 
   public String getSeries() {
 
-    if (this.series == null)
-      this.series =
-          String.format(
-              "[%s]",
-              IntStream.range(0, getChordNumber())
-                  .mapToObj(this::getChord)
-                  .map(
-                      c ->
-                          Pitch.triadChordTest(c) == 'X'
-                              ? (Pitch.seventhChordTest(c) == 'X'
-                                  ? "X"
-                                  : (Pitch.isRootPosition(c) ? "S" : "s"))
-                              : (Pitch.isRootPosition(c) ? "T" : "t"))
-                  .collect(Collectors.joining()));
+    if (this.series == null) {
+      var keys = this.getChordKeys();
+      var symbols = new char[keys.length + 2];
+      symbols[0] = '[';
+      for (int i = 0; i < keys.length; i++) symbols[i + 1] = ChordTable.getSeriesSymbol(keys[i]);
+      symbols[symbols.length - 1] = ']';
+      this.series = new String(symbols);
+    }
     return this.series;
   }
 
-  private List<List<Integer>> chord_numbers;
+  private volatile List<List<Integer>> chord_numbers;
 
   public List<List<Integer>> getFiguredNumerals() {
 
     if (this.chord_numbers == null)
       this.chord_numbers =
-          IntStream.range(0, this.getChordNumber())
-              .mapToObj(this::getChord)
-              .map(Pitch::getNumbers)
-              .map(set -> set.stream().sorted(Comparator.reverseOrder()).toList())
-              .toList();
+          Arrays.stream(this.getChordKeys()).mapToObj(ChordTable::getFigures).toList();
     return this.chord_numbers;
   }
 
   /**
-   * Check if all chord notes are in their respective VOICE registers.
+   * Get the key of the chord at specified position in {@link ChordTable}.
+   *
+   * @param pos chord position starting from 0.
+   * @return chord key.
+   */
+  public int getChordKey(int pos) {
+
+    return ChordTable.key(this.genes, pos * voice.length(), voice.length());
+  }
+
+  /**
+   * Get the keys of all chords in {@link ChordTable}, computed once.
+   *
+   * @return shared array of chord keys, not to be modified.
+   */
+  int[] getChordKeys() {
+
+    if (this.chord_keys == null)
+      this.chord_keys = IntStream.range(0, this.getChordNumber()).map(this::getChordKey).toArray();
+    return this.chord_keys;
+  }
+
+  /**
+   * Check if all chord notes are in their respective voice registers.
    *
-   * @param chromosomeRepresentation
+   * @param voice voice types.
+   * @param genes chord-major pitch ordinals.
    * @throws InvalidRepresentationException
    */
-  @Override
-  protected void checkValidity(List<Integer> chromosomeRepresentation)
+  protected static void checkValidity(String voice, int[] genes)
       throws InvalidRepresentationException {
 
-    for (int i = 0; i < chromosomeRepresentation.size(); i++) {
-      var v = i % VOICE.length();
-      var p = chromosomeRepresentation.get(i);
-      var register = Pitch.getRegister(VOICE.charAt(v));
-      if (!Pitch.isInRegister(VOICE.charAt(v), p))
+    for (int i = 0; i < genes.length; i++) {
+      var v = i % voice.length();
+      var p = genes[i];
+      var register = Pitch.getRegister(voice.charAt(v));
+      if (!Pitch.isInRegister(voice.charAt(v), p))
         throw new InvalidRepresentationException(
             LocalizedFormats.ARGUMENT_OUTSIDE_DOMAIN,
-            VOICE.charAt(v) + ":" + Pitch.values()[p],
+            voice.charAt(v) + ":" + Pitch.values()[p],
             register[0],
             register[1]);
     }
   }
 
   /**
-   * Generate random chromosome representing chord number specified and predefined VOICE types.
+   * Generate random chromosome representing chord number specified and given voice types.
    *
+   * @param voice voice types.
    * @param chord_no chord number specified, resulting in a chromosome with length of chord number
-   *     times VOICE number.
-   * @return encoded integer list representing generated chord series.
+   *     times voice number.
+   * @param random random stream to draw from.
+   * @return encoded integer array representing generated chord series.
+   */
+  public static int[] getRandomChromosome(String voice, int chord_no, SplittableRandom random) {
+
+    var genes = new int[chord_no * voice.length()];
+    for (int i = 0; i < genes.length; i++)
+      genes[i] = Pitch.getNote(voice.charAt(i % voice.length()), random);
+    return genes;
+  }
+
+  /**
+   * Generate random chromosome whose melodies walk by feasible intervals through triads and
+   * sevenths with proper outer voices, starting with a triad. Each chord is drawn from the notes
+   * feasibly following the previous ones until it satisfies these rules, or kept as last drawn if
+   * none does within {@link #WALK_ATTEMPTS} draws.
+   *
+   * @param voice voice types.
+   * @param chord_no chord number specified.
+   * @param random random stream to draw from.
+   * @return encoded integer array representing generated chord series.
+   */
+  public static int[] getRandomWalkChromosome(
+      String voice, int chord_no, SplittableRandom random) {
+
+    var n = voice.length();
+    var genes = new int[chord_no * n];
+    var candidates = new int[n][];
+    var outer = new int[1];
+    for (int pos = 0; pos < chord_no; pos++) {
+      var offset = pos * n;
+      if (pos > 0)
+        for (int v = 0; v < n; v++)
+          candidates[v] = walk(voice.charAt(v), genes, offset + v - n, pos > 1 ? n : 0);
+      for (int attempt = 0; attempt < WALK_ATTEMPTS; attempt++) {
+        for (int v = 0; v < n; v++)
+          genes[offset + v] =
+              pos == 0
+                  ? Pitch.getNote(voice.charAt(v), random)
+                  : candidates[v][random.nextInt(candidates[v].length)];
+        var series = ChordTable.getSeriesSymbol(ChordTable.key(genes, offset, n));
+        Evaluation.ImproperOuterVoices.computeTerms(genes, voice, chord_no, pos, outer, 0);
+        if (series != 'X' && (pos > 0 || "Tt".indexOf(series) >= 0) && outer[0] == 0) break;
+      }
+    }
+    return genes;
+  }
+
+  /**
+   * Notes which may follow the note at an index, preferring those forming a feasible 3-note figure
+   * with the note before.
+   *
+   * @param v voice type.
+   * @param genes chromosome being generated.
+   * @param index index of the previous note.
+   * @param stride distance to the note before the previous one, 0 if there is none.
+   */
+  private static int[] walk(char v, int[] genes, int index, int stride) {
+
+    var after = MelodicTable.getCandidatesAfter(v, genes[index]);
+    if (stride == 0) return after;
+    var figures =
+        Arrays.stream(after)
+            .filter(p -> MelodicTable.isFeasible(v, genes[index - stride], genes[index], p))
+            .toArray();
+    return figures.length > 0 ? figures : after;
+  }
+
+  /**
+   * Get chromosome length, i.e. chord number times voice number.
+   *
+   * @return number of genes.
+   */
+  public int getLength() {
+
+    return this.genes.length;
+  }
+
+  /**
+   * Get the note of specified chord and voice without boxing.
+   *
+   * @param pos chord position starting from 0.
+   * @param v voice index specified (starting from 0).
+   * @return pitch ordinal.
    */
-  public static List<Integer> getRandomChromosome(int chord_no) {
+  public int getPitch(int pos, int v) {
 
-    return Stream.generate(() -> IntStream.range(0, VOICE.length()))
-        .limit(chord_no)
-        .flatMap(s -> s.mapToObj(VOICE::charAt))
-        .map(Pitch::getNote)
-        .toList();
+    return this.genes[pos * voice.length() + v];
+  }
+
+  /**
+   * Direct access to the backing array for operators in this package, which must copy it before
+   * making any change.
+   *
+   * @return chord-major pitch ordinals.
+   */
+  int[] genes() {
+
+    return this.genes;
   }
 
   /**
@@ -165,33 +443,29 @@ public class Individual extends AbstractListChromosome<Integer> {
    */
   public int getChordNumber() {
 
-    return this.getLength() / VOICE.length();
+    return this.getLength() / voice.length();
   }
 
   /**
-   * Get the melody of specified VOICE.
+   * Get the melody of specified voice.
    *
-   * @param v VOICE index specified (starting from 0).
-   * @return an integer list representing requested melody.
+   * @param v voice index specified (starting from 0).
+   * @return an unmodifiable integer list view representing requested melody.
    */
   public List<Integer> getMelody(int v) {
 
-    return IntStream.range(0, this.getLength() / VOICE.length())
-        .mapToObj(c -> this.getRepresentation().get(c * VOICE.length() + v))
-        .toList();
+    return new GeneView(this.genes, v, voice.length(), this.getChordNumber());
   }
 
   /**
    * Get the chord of specified position.
    *
    * @param pos chord position starting from 0.
-   * @return a integer list representing requested chord.
+   * @return an unmodifiable integer list view representing requested chord.
    */
   public List<Integer> getChord(int pos) {
 
-    return IntStream.range(0, VOICE.length())
-        .mapToObj(i -> this.getRepresentation().get(pos * VOICE.length() + i))
-        .toList();
+    return new GeneView(this.genes, pos * voice.length(), 1, voice.length());
   }
 
   public List<Integer> getLastChord() {
@@ -199,18 +473,15 @@ public class Individual extends AbstractListChromosome<Integer> {
     return this.getChord(this.getChordNumber() - 1);
   }
 
-  @Override
   public List<Integer> getRepresentation() {
 
-    return super.getRepresentation();
+    return new GeneView(this.genes, 0, 1, this.genes.length);
   }
 
   @Override
   public int hashCode() {
 
-    int hash = 3;
-    hash = 29 * hash + this.getRepresentation().hashCode();
-    return hash;
+    return Long.hashCode(this.key);
   }
 
   @Override
@@ -220,7 +491,15 @@ public class Individual extends AbstractListChromosome<Integer> {
     if (obj == null) return false;
     if (getClass() != obj.getClass()) return false;
     final Individual other = (Individual) obj;
-    return this.getRepresentation().equals(other.getRepresentation());
+    return this.key == other.key
+        && this.voice.equals(other.voice)
+        && Arrays.equals(this.genes, other.genes);
+  }
+
+  @Override
+  protected boolean isSame(Chromosome another) {
+
+    return this.equals(another);
   }
 
   @Override
@@ -228,8 +507,8 @@ public class Individual extends AbstractListChromosome<Integer> {
 
     var result =
         '['
-            + IntStream.range(0, VOICE.length())
-                .mapToObj(i -> " " + VOICE.charAt(i))
+            + IntStream.range(0, voice.length())
+                .mapToObj(i -> " " + voice.charAt(i))
                 .collect(Collectors.joining(", "))
             + "]\n";
     result +=
@@ -239,7 +518,7 @@ public class Individual extends AbstractListChromosome<Integer> {
                 .map(List::toString)
                 .collect(Collectors.joining("\n"))
             + "\n";
-    result += "-".repeat(VOICE.length() * 4) + "\n";
+    result += "-".repeat(voice.length() * 4) + "\n";
     result += "Harmonic Progression:\n" + this.toRomanNumerals(false);
     return result;
   }
@@ -324,11 +603,44 @@ public class Individual extends AbstractListChromosome<Integer> {
 
   public void saveScore(Path folder, String filename, String composer) {
 
-    new IndividualScore(
+    new StreamingScore(
             "Exploring Voice-Leading with GA",
-            String.format("%s x %dmm.", VOICE, this.getChordNumber()),
+            String.format("%s x %dmm.", voice, this.getChordNumber()),
             composer,
             this)
         .writeMusicXML(folder, filename);
   }
+
+  /**
+   * Strided read-only view over the gene array. Pitch ordinals are small enough for the boxed
+   * values to come from the {@link Integer} cache, so reading it does not allocate.
+   */
+  private static final class GeneView extends AbstractList<Integer> implements RandomAccess {
+
+    private final int[] genes;
+    private final int offset;
+    private final int stride;
+    private final int size;
+
+    private GeneView(int[] genes, int offset, int stride, int size) {
+
+      this.genes = genes;
+      this.offset = offset;
+      this.stride = stride;
+      this.size = size;
+    }
+
+    @Override
+    public Integer get(int index) {
+
+      if (index < 0 || index >= this.size) throw new IndexOutOfBoundsException(index);
+      return this.genes[this.offset + index * this.stride];
+    }
+
+    @Override
+    public int size() {
+
+      return this.size;
+    }
+  }
 }
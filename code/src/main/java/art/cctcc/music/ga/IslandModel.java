@@ -0,0 +1,174 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.genetics.Chromosome;
+import org.apache.commons.math3.genetics.Population;
+
+/**
+ * Sub-populations evolving side by side, each on its own thread, and exchanging their fittest
+ * chromosomes every few generations.
+ *
+ * <p>Islands evolve in epochs of a fixed number of generations. Migrants are taken from all
+ * islands at the end of an epoch before any of them is replaced, so the outcome only depends on
+ * the seeds of the islands, not on thread scheduling.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class IslandModel {
+
+  public enum Topology {
+    /** Each island sends its migrants to the next one. */
+    RING,
+    /** Each island sends its migrants to all others. */
+    FULL
+  }
+
+  private final List<MyGeneticAlgorithm> islands;
+  private final int interval;
+  private final int migrants;
+  private final Topology topology;
+
+  /** Receives the populations of all islands after each migration. */
+  private Consumer<List<MyPopulation>> listener = populations -> {};
+
+  /**
+   * @param islands algorithms evolving each island, with their own random contexts.
+   * @param interval generations between migrations.
+   * @param migrants number of fittest chromosomes each island sends per migration.
+   * @param topology destinations of migrants.
+   */
+  public IslandModel(
+      List<MyGeneticAlgorithm> islands, int interval, int migrants, Topology topology) {
+
+    if (islands.isEmpty() || interval < 1 || migrants < 0)
+      throw new IllegalArgumentException(
+          String.format(
+              "IslandModel: Invalid islands=%d, interval=%d, migrants=%d",
+              islands.size(), interval, migrants));
+    this.islands = List.copyOf(islands);
+    this.interval = interval;
+    this.migrants = migrants;
+    this.topology = topology;
+  }
+
+  /**
+   * Evolve all islands until the condition is satisfied on any of them. The condition is tested
+   * on each island after every generation and between epochs.
+   *
+   * @param initial initial population of each island.
+   * @param condition stopping condition of an island's population and algorithm.
+   * @return population of the island holding the fittest chromosome.
+   */
+  public MyPopulation evolve(
+      List<MyPopulation> initial, BiPredicate<Population, MyGeneticAlgorithm> condition) {
+
+    if (initial.size() != this.islands.size())
+      throw new IllegalArgumentException(
+          String.format(
+              "IslandModel: %d populations for %d islands", initial.size(), this.islands.size()));
+    var populations = new ArrayList<>(initial);
+    var executor = Executors.newFixedThreadPool(this.islands.size());
+    try {
+      while (IntStream.range(0, populations.size())
+          .noneMatch(i -> condition.test(populations.get(i), this.islands.get(i)))) {
+        var epochs =
+            IntStream.range(0, populations.size())
+                .mapToObj(
+                    i ->
+                        CompletableFuture.supplyAsync(
+                            () -> this.epoch(this.islands.get(i), populations.get(i), condition),
+                            executor))
+                .toList();
+        for (int i = 0; i < epochs.size(); i++) populations.set(i, epochs.get(i).join());
+        this.migrate(populations);
+        this.listener.accept(List.copyOf(populations));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return populations.stream().max(Comparator.comparing(Population::getFittestChromosome)).get();
+  }
+
+  private MyPopulation epoch(
+      MyGeneticAlgorithm ga,
+      MyPopulation population,
+      BiPredicate<Population, MyGeneticAlgorithm> condition) {
+
+    var end = ga.getGenerationsEvolved() + this.interval;
+    return (MyPopulation)
+        ga.evolve(population, p -> ga.getGenerationsEvolved() >= end || condition.test(p, ga));
+  }
+
+  private void migrate(List<MyPopulation> populations) {
+
+    var n = populations.size();
+    if (n < 2 || this.migrants == 0) return;
+    var emigrants = populations.stream().map(p -> p.getFittestChromosomes(this.migrants)).toList();
+    for (int i = 0; i < n; i++) {
+      var incoming = new ArrayList<Chromosome>();
+      switch (this.topology) {
+        case RING -> incoming.addAll(emigrants.get((i + n - 1) % n));
+        case FULL -> {
+          for (int j = 0; j < n; j++) if (j != i) incoming.addAll(emigrants.get(j));
+        }
+      }
+      populations.get(i).immigrate(incoming);
+    }
+  }
+
+  /**
+   * Observe the islands between epochs, when all of them have evolved the same generations and
+   * received their migrants, e.g. to checkpoint the run.
+   *
+   * @param listener consumer of the populations of all islands.
+   */
+  public void setEpochListener(Consumer<List<MyPopulation>> listener) {
+
+    this.listener = listener;
+  }
+
+  /**
+   * Generations evolved by the islands, which advance in step.
+   *
+   * @return generations of the furthest island.
+   */
+  public int getGenerationsEvolved() {
+
+    return this.islands.stream()
+        .mapToInt(MyGeneticAlgorithm::getGenerationsEvolved)
+        .max()
+        .getAsInt();
+  }
+
+  public int getIslandCount() {
+
+    return this.islands.size();
+  }
+
+  public Topology getTopology() {
+
+    return this.topology;
+  }
+}
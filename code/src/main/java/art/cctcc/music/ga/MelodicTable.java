@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed melodic feasibility of 2-note and 3-note figures for each voice type over the whole
+ * {@link Pitch} range, together with the mutation candidates of each voice next to a given note.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public final class MelodicTable {
+
+  private static final int N = Pitch.values().length;
+  private static final String TYPES = "SATB";
+
+  private static final boolean[][] FIGURE2 = new boolean[TYPES.length()][N * N];
+  private static final long[][] FIGURE3 = new long[TYPES.length()][(N * N * N + 63) / 64];
+
+  /** Register notes p of the voice with (q, p) feasible, indexed by type and q. */
+  private static final int[][][] AFTER = new int[TYPES.length()][N][];
+
+  /** Register notes p of the voice with (p, q) feasible, indexed by type and q. */
+  private static final int[][][] BEFORE = new int[TYPES.length()][N][];
+
+  static {
+    for (int t = 0; t < TYPES.length(); t++) {
+      var voice = TYPES.charAt(t);
+      for (int p1 = 0; p1 < N; p1++)
+        for (int p2 = 0; p2 < N; p2++) {
+          FIGURE2[t][p1 * N + p2] = Evaluation.isMelodicFeasibleFigure(voice, List.of(p1, p2));
+          for (int p3 = 0; p3 < N; p3++)
+            if (Evaluation.isMelodicFeasibleFigure(voice, List.of(p1, p2, p3))) {
+              var i = (p1 * N + p2) * N + p3;
+              FIGURE3[t][i >> 6] |= 1L << i;
+            }
+        }
+      var register = Pitch.getRegister(voice);
+      for (int q = 0; q < N; q++) {
+        var type = t;
+        var neighbour = q;
+        AFTER[t][q] =
+            IntStream.rangeClosed(register[0].ordinal(), register[1].ordinal())
+                .filter(p -> FIGURE2[type][neighbour * N + p])
+                .toArray();
+        BEFORE[t][q] =
+            IntStream.rangeClosed(register[0].ordinal(), register[1].ordinal())
+                .filter(p -> FIGURE2[type][p * N + neighbour])
+                .toArray();
+      }
+    }
+  }
+
+  private MelodicTable() {}
+
+  private static int type(char voice) {
+
+    var t = TYPES.indexOf(voice);
+    if (t < 0) throw new RuntimeException("MelodicTable: Unexpected voice label.");
+    return t;
+  }
+
+  public static boolean isFeasible(char voice, int p1, int p2) {
+
+    return FIGURE2[type(voice)][p1 * N + p2];
+  }
+
+  public static boolean isFeasible(char voice, int p1, int p2, int p3) {
+
+    var i = (p1 * N + p2) * N + p3;
+    return (FIGURE3[type(voice)][i >> 6] & 1L << i) != 0;
+  }
+
+  /**
+   * Notes in the register of the voice which can follow the specified note.
+   *
+   * @param voice <code>'S', 'A', 'T', 'B'</code> for Soprano, Alto, Tenor and Bass.
+   * @param q preceding note.
+   * @return shared ascending array of candidates, not to be modified.
+   */
+  public static int[] getCandidatesAfter(char voice, int q) {
+
+    return AFTER[type(voice)][q];
+  }
+
+  /**
+   * Notes in the register of the voice which can precede the specified note.
+   *
+   * @param voice <code>'S', 'A', 'T', 'B'</code> for Soprano, Alto, Tenor and Bass.
+   * @param q following note.
+   * @return shared ascending array of candidates, not to be modified.
+   */
+  public static int[] getCandidatesBefore(char voice, int q) {
+
+    return BEFORE[type(voice)][q];
+  }
+}
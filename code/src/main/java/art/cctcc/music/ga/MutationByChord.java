@@ -15,12 +15,8 @@
  */
 package art.cctcc.music.ga;
 
-import static art.cctcc.music.Settings.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.function.Function;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 import org.apache.commons.math3.genetics.Chromosome;
 import org.apache.commons.math3.genetics.MutationPolicy;
 
@@ -29,11 +25,13 @@ import org.apache.commons.math3.genetics.MutationPolicy;
  */
 public class MutationByChord implements MutationPolicy {
 
+  private final RandomContext random;
   private final int max_loci;
   private final int max_voices;
 
-  public MutationByChord(int max_loci, int max_voices) {
+  public MutationByChord(RandomContext random, int max_loci, int max_voices) {
 
+    this.random = random;
     this.max_loci = max_loci;
     this.max_voices = max_voices;
   }
@@ -42,8 +40,9 @@ public class MutationByChord implements MutationPolicy {
   public Chromosome mutate(Chromosome original) {
 
     if (original instanceof Individual idv) {
-      var mVoices = R.nextInt(max_voices) + 1;
-      var mLoci = R.nextInt(max_loci) + 1;
+      var r = this.random.current();
+      var mVoices = r.nextInt(max_voices) + 1;
+      var mLoci = r.nextInt(max_loci) + 1;
       return this.getMutation(idv, mLoci, mVoices);
     }
     throw new IllegalArgumentException();
@@ -63,39 +62,68 @@ public class MutationByChord implements MutationPolicy {
    */
   Individual getMutation(Individual idv, int mLoci, int mVoices, boolean canKeep) {
 
-    var newChromosome = new ArrayList<Integer>(idv.getRepresentation());
-    var chord_indices =
-        IntStream.generate(() -> R.nextInt(idv.getChordNumber())).distinct().limit(mLoci).toArray();
+    var r = this.random.current();
+    var voices = idv.getVoice();
+    var newChromosome = idv.genes().clone();
+    var chord_indices = sample(idv.getChordNumber(), mLoci, r);
     for (int chord_idx : chord_indices) {
-      var mutatedVoiceFlag =
-          Stream.generate(() -> R.nextInt(1 << Individual.VOICE.length()))
-              .map(Integer::toBinaryString)
-              .filter(s -> s.replace("0", "").length() == mVoices)
-              .map(s -> "0".repeat(Individual.VOICE.length() - s.length()) + s)
-              .findAny()
-              .get();
-      IntStream.range(0, Individual.VOICE.length())
-          .filter(v -> mutatedVoiceFlag.charAt(v) == '1')
-          .forEach(
-              v -> {
-                var voice = Individual.VOICE.charAt(v);
-                var vRange = Pitch.getRegister(voice);
-                var melody = idv.getMelody(v);
-                Function<Integer, List<Integer>> figure =
-                    p ->
-                        (chord_idx == idv.getChordNumber() - 1)
-                            ? List.of(melody.get(chord_idx - 1), p)
-                            : List.of(p, melody.get(chord_idx + 1));
-                var candidates =
-                    IntStream.rangeClosed(vRange[0].ordinal(), vRange[1].ordinal())
-                        .filter(p -> canKeep || p != idv.getChord(chord_idx).get(v))
-                        .filter(p -> Evaluation.isMelodicFeasible(voice, figure.apply(p)))
-                        .toArray();
-                newChromosome.set(
-                    chord_idx * Individual.VOICE.length() + v,
-                    candidates[R.nextInt(candidates.length)]);
-              });
+      var mutatedVoices = sampleMask(voices.length(), mVoices, r);
+      for (int v = 0; v < voices.length(); v++) {
+        if ((mutatedVoices & 1L << v) == 0) continue;
+        var voice = voices.charAt(v);
+        var candidates =
+            (chord_idx == idv.getChordNumber() - 1)
+                ? MelodicTable.getCandidatesAfter(voice, idv.getPitch(chord_idx - 1, v))
+                : MelodicTable.getCandidatesBefore(voice, idv.getPitch(chord_idx + 1, v));
+        // skip the current note without copying the shared candidate array
+        var kept = canKeep ? -1 : Arrays.binarySearch(candidates, idv.getPitch(chord_idx, v));
+        var pick = r.nextInt(kept < 0 ? candidates.length : candidates.length - 1);
+        if (kept >= 0 && pick >= kept) pick++;
+        newChromosome[chord_idx * voices.length() + v] = candidates[pick];
+      }
     }
-    return new Individual(newChromosome);
+    return idv.withGenes(newChromosome, chord_indices);
+  }
+
+  /**
+   * Draw distinct integers by Floyd's algorithm, with one draw per integer whatever the range.
+   *
+   * @param n size of the range <code>[0, n)</code>.
+   * @param k number of integers, at most <code>n</code> are drawn.
+   * @param r random stream.
+   * @return distinct integers in order of drawing.
+   */
+  static int[] sample(int n, int k, SplittableRandom r) {
+
+    k = Math.min(k, n);
+    var result = new int[k];
+    for (int i = 0, j = n - k; j < n; i++, j++) {
+      var t = r.nextInt(j + 1);
+      for (int c = 0; c < i; c++)
+        if (result[c] == t) {
+          t = j;
+          break;
+        }
+      result[i] = t;
+    }
+    return result;
+  }
+
+  /**
+   * Draw a subset of voices as a bit mask by Floyd's algorithm.
+   *
+   * @param n number of voices, at most 64.
+   * @param k number of voices in the subset, at most <code>n</code> are drawn.
+   * @param r random stream.
+   * @return bit mask with <code>k</code> bits set below bit <code>n</code>.
+   */
+  static long sampleMask(int n, int k, SplittableRandom r) {
+
+    var mask = 0L;
+    for (int j = n - Math.min(k, n); j < n; j++) {
+      var t = r.nextInt(j + 1);
+      mask |= (mask & 1L << t) == 0 ? 1L << t : 1L << j;
+    }
+    return mask;
   }
 }
@@ -15,24 +15,40 @@
  */
 package art.cctcc.music.ga;
 
-import static art.cctcc.music.Settings.R;
+import art.cctcc.music.ga.GenerationMetrics.Phase;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import org.apache.commons.math3.exception.OutOfRangeException;
+import org.apache.commons.math3.genetics.Chromosome;
 import org.apache.commons.math3.genetics.ChromosomePair;
 import org.apache.commons.math3.genetics.CrossoverPolicy;
 import org.apache.commons.math3.genetics.GeneticAlgorithm;
 import org.apache.commons.math3.genetics.MutationPolicy;
 import org.apache.commons.math3.genetics.Population;
 import org.apache.commons.math3.genetics.SelectionPolicy;
+import org.apache.commons.math3.genetics.StoppingCondition;
+import org.apache.commons.math3.util.FastMath;
 
 /**
  * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
  */
 public class MyGeneticAlgorithm extends GeneticAlgorithm {
 
+  /** Number of offspring bred with one random stream. */
+  private static final int CHUNK = 32;
+
+  /** Mutations of a duplicate offspring before it is rejected. */
+  private static final int REMUTATIONS = 4;
+
   /** Mutation-Only Rate */
   public double mo_rate;
 
@@ -45,16 +61,37 @@ public class MyGeneticAlgorithm extends GeneticAlgorithm {
   public Instant timer;
   public List<String> text_log;
 
+  private final RandomContext random;
+
+  /** Pool for breeding and evaluation, or null to run on the calling thread. */
+  private ForkJoinPool pool;
+
+  /** Generations evolved so far, counted on across calls of {@link #evolve}. */
+  private int generationsEvolved;
+
+  /** Prefix of progress lines, telling islands apart. */
+  private String label = "";
+
+  private final GenerationMetrics metrics = new GenerationMetrics();
+
+  /** Watches the populations for stagnation, or null to evolve on regardless. */
+  private Stagnation stagnation;
+
+  /** What becomes of duplicate offspring, or null to keep them. */
+  private MyPopulation.Duplicates duplicates;
+
   public MyGeneticAlgorithm(
       CrossoverPolicy crossoverPolicy,
       MutationPolicy mutationPolicy,
       SelectionPolicy selectionPolicy,
       double co_rate,
       double cm_rate,
-      double mo_rate)
+      double mo_rate,
+      RandomContext random)
       throws OutOfRangeException {
 
     super(crossoverPolicy, 0, mutationPolicy, 0, selectionPolicy);
+    this.random = random;
     this.timer = Instant.now();
     this.text_log = new ArrayList<>();
     this.co_rate = co_rate;
@@ -62,55 +99,396 @@ public class MyGeneticAlgorithm extends GeneticAlgorithm {
     this.mo_rate = mo_rate;
   }
 
+  /**
+   * Evolve the population until the condition is satisfied. Unlike the base class, the generation
+   * count is not reset, so that a run can be evolved in several epochs, as islands do between
+   * migrations. Stagnated populations are replaced as set by {@link #setStagnation}.
+   */
+  @Override
+  public Population evolve(Population initial, StoppingCondition condition) {
+
+    var current = initial;
+    while (!condition.isSatisfied(current)) {
+      current = nextGeneration(current);
+      this.generationsEvolved++;
+      if (this.stagnation != null && current instanceof MyPopulation population) {
+        current =
+            this.stagnation.check(
+                population, this.metrics.getDiversity(), this.generationsEvolved, this.random);
+        if (current != population)
+          log(
+              String.format(
+                  "%s%6d: Stagnated at %6.3f, %s to %d chromosomes",
+                  this.label,
+                  this.generationsEvolved,
+                  population.getFittestChromosome().getFitness(),
+                  this.stagnation.getResponse(),
+                  current.getPopulationLimit()));
+      }
+    }
+    return current;
+  }
+
+  @Override
+  public int getGenerationsEvolved() {
+
+    return this.generationsEvolved;
+  }
+
+  /**
+   * Continue counting generations of a resumed run.
+   *
+   * @param generations generations evolved before.
+   */
+  void setGenerationsEvolved(int generations) {
+
+    this.generationsEvolved = generations;
+  }
+
+  /**
+   * Breed the next generation, or evolve a {@link SteadyStatePopulation} in place for as many
+   * offspring.
+   */
   @Override
   public Population nextGeneration(Population currentPopulation) {
 
+    if (currentPopulation instanceof SteadyStatePopulation current)
+      return this.steadyState(current);
     if (currentPopulation instanceof MyPopulation current) {
+      this.metrics.begin();
+      var start = System.nanoTime();
+      // packed populations hold the fitness of their chromosomes already
+      if (!(current instanceof ArenaPopulation)) this.evaluate(current.getChromosomes());
+      start = this.metrics.lap(Phase.EVALUATION, start);
       var next = current.nextGeneration();
-      while (next.getPopulationSize() < next.getPopulationLimit()) {
-        var pair = this.getSelectionPolicy().select(current);
-        var dice = R.nextDouble();
-        if ((dice -= cm_rate) < 0) {
-          pair = this.getCrossoverPolicy().crossover(pair.getFirst(), pair.getSecond());
-          pair =
-              new ChromosomePair(
-                  this.getMutationPolicy().mutate(pair.getFirst()),
-                  this.getMutationPolicy().mutate(pair.getSecond()));
-        } else if ((dice -= co_rate) < 0) {
-          pair = this.getCrossoverPolicy().crossover(pair.getFirst(), pair.getSecond());
-        } else if ((dice -= mo_rate) < 0) {
-          pair =
-              new ChromosomePair(
-                  this.getMutationPolicy().mutate(pair.getFirst()),
-                  this.getMutationPolicy().mutate(pair.getSecond()));
-        }
-        next.addChromosome(pair.getFirst());
-        if (next.getPopulationSize() < next.getPopulationLimit())
-          next.addChromosome(pair.getSecond());
-      }
-      var now = Instant.now();
-      var duration = Duration.between(timer, now).getSeconds();
-      if (duration >= 3 && (this.getGenerationsEvolved() + 1) % 10 == 0) {
-        timer = now;
-        if (next.getFittestChromosome() instanceof Individual idv) {
-          log(
-              String.format(
-                  "%6d:%6.3f /%6.3f %s P%s",
-                  this.getGenerationsEvolved() + 1,
-                  idv.getFitness(),
-                  next.getAvgEliteFitness(),
-                  idv.getSeries(),
-                  idv.getProgression()));
-        }
+      this.metrics.lap(Phase.ELITISM, start);
+      var needed = next.getPopulationLimit() - next.getPopulationSize();
+      // Chunk sizes and streams only depend on the seed, the generation and the population size,
+      // so the offspring are the same whether the chunks run on the calling thread or on the pool.
+      // Chunks are even-sized so that no pair is split, and are merged in submission order.
+      var generation = this.random.forGeneration(this.getGenerationsEvolved() + 1);
+      var chunks =
+          IntStream.iterate(0, i -> i < needed, i -> i + CHUNK)
+              .mapToObj(i -> Map.entry(Math.min(CHUNK, needed - i), generation.split()))
+              .toList();
+      // Duplicates are resolved and replaced on the calling thread in submission order, on a
+      // stream of their own, so that they do not depend on the parallelism either.
+      var spare = generation.split();
+      var previous = this.random.bind(spare);
+      try {
+        if (this.pool == null)
+          for (var c : chunks) {
+            var offspring = new ArrayList<Chromosome>(c.getKey());
+            this.breed(current, c.getKey(), c.getValue(), offspring::add);
+            offspring.forEach(o -> this.admit(next, o));
+          }
+        else
+          chunks.stream()
+              .<Callable<List<Chromosome>>>map(
+                  c ->
+                      () -> {
+                        var offspring = new ArrayList<Chromosome>(c.getKey());
+                        this.breed(current, c.getKey(), c.getValue(), offspring::add);
+                        var evaluation = System.nanoTime();
+                        offspring.forEach(Chromosome::getFitness);
+                        this.metrics.lap(Phase.EVALUATION, evaluation);
+                        return offspring;
+                      })
+              .map(this.pool::submit)
+              .toList()
+              .stream()
+              .map(ForkJoinTask::join)
+              .flatMap(List::stream)
+              .forEach(o -> this.admit(next, o));
+        // breed in place of rejected offspring, at most as many again so that a population of
+        // clones cannot hold up the run
+        for (int i = 0; i < needed && next.getPopulationSize() < next.getPopulationLimit(); i += 2)
+          this.breed(current, 2, spare, o -> this.admit(next, o));
+      } finally {
+        this.random.bind(previous);
       }
+      // offspring bred on the calling thread are evaluated here rather than by the next selection
+      var evaluation = System.nanoTime();
+      next.getFitnesses();
+      this.metrics.lap(Phase.EVALUATION, evaluation);
+      this.metrics.end(this.getGenerationsEvolved() + 1, needed, next);
+      this.progress(next);
       return next;
     }
     return null;
   }
 
+  /**
+   * Add an offspring to the next generation while it is not full, resolving duplicates as set by
+   * {@link #setDuplicates}.
+   *
+   * @param next population of the next generation.
+   * @param offspring offspring bred.
+   */
+  private void admit(MyPopulation next, Chromosome offspring) {
+
+    if (next.getPopulationSize() >= next.getPopulationLimit()) return;
+    if (this.duplicates == null) next.addChromosome(offspring);
+    else if ((offspring = this.distinct(next, offspring)) != null) next.addDistinct(offspring);
+  }
+
+  /**
+   * Resolve an offspring identical to a chromosome of a population as set by {@link
+   * #setDuplicates}, mutating it with the random stream bound to the calling thread.
+   *
+   * @param population population the offspring is to join.
+   * @param offspring offspring bred.
+   * @return the offspring, a mutant of it distinct from the population, or null if rejected.
+   */
+  private Chromosome distinct(MyPopulation population, Chromosome offspring) {
+
+    if (this.duplicates == null) return offspring;
+    var time = System.nanoTime();
+    for (int i = 0; offspring != null && population.contains(offspring); i++)
+      offspring =
+          this.duplicates == MyPopulation.Duplicates.REJECT || i == REMUTATIONS
+              ? null
+              : this.getMutationPolicy().mutate(offspring);
+    this.metrics.lap(Phase.MUTATION, time);
+    return offspring;
+  }
+
+  /**
+   * Log the fittest of the next generation every 10 generations, at most every 3 seconds.
+   *
+   * @param next population of the next generation.
+   */
+  private void progress(MyPopulation next) {
+
+    var now = Instant.now();
+    var duration = Duration.between(timer, now).getSeconds();
+    if (duration >= 3 && (this.getGenerationsEvolved() + 1) % 10 == 0) {
+      timer = now;
+      if (next.getFittestChromosome() instanceof Individual idv) {
+        log(
+            String.format(
+                "%s%6d:%6.3f /%6.3f %s P%s",
+                this.label,
+                this.getGenerationsEvolved() + 1,
+                idv.getFitness(),
+                next.getAvgEliteFitness(),
+                idv.getSeries(),
+                idv.getProgression()));
+      }
+    }
+  }
+
+  /**
+   * Produce offspring by selection, crossover and mutation.
+   *
+   * @param current population to select parents from.
+   * @param count number of offspring required.
+   * @param stream random stream bound to the calling thread while breeding.
+   * @param offspring consumer of offspring.
+   */
+  private void breed(
+      MyPopulation current, int count, SplittableRandom stream, Consumer<Chromosome> offspring) {
+
+    var previous = this.random.bind(stream);
+    try {
+      for (int i = 0; i < count; i += 2) {
+        var time = System.nanoTime();
+        var pair = this.getSelectionPolicy().select(current);
+        time = this.metrics.lap(Phase.SELECTION, time);
+        pair = this.reproduce(pair, stream, time);
+        offspring.accept(pair.getFirst());
+        if (i + 1 < count) offspring.accept(pair.getSecond());
+      }
+    } finally {
+      this.random.bind(previous);
+    }
+  }
+
+  /**
+   * Breed a pair of offspring by crossover, mutation or both, or copy the parents unchanged.
+   *
+   * @param parents selected parents.
+   * @param stream random stream bound to the calling thread.
+   * @param time timestamp of the end of selection.
+   * @return offspring.
+   */
+  private ChromosomePair reproduce(ChromosomePair parents, SplittableRandom stream, long time) {
+
+    var pair = parents;
+    var dice = stream.nextDouble();
+    if ((dice -= cm_rate) < 0) {
+      pair = this.getCrossoverPolicy().crossover(pair.getFirst(), pair.getSecond());
+      time = this.metrics.lap(Phase.CROSSOVER, time);
+      pair = this.mutate(pair);
+      this.metrics.lap(Phase.MUTATION, time);
+    } else if ((dice -= co_rate) < 0) {
+      pair = this.getCrossoverPolicy().crossover(pair.getFirst(), pair.getSecond());
+      this.metrics.lap(Phase.CROSSOVER, time);
+    } else if ((dice -= mo_rate) < 0) {
+      pair = this.mutate(pair);
+      this.metrics.lap(Phase.MUTATION, time);
+    }
+    return pair;
+  }
+
+  /**
+   * Evolve a steady-state population in place for one generation, i.e. as many offspring as a
+   * generation replaces beyond the elite. Each pair is bred from the population as updated by the
+   * pairs before, on the calling thread.
+   *
+   * @param current population to evolve.
+   * @return the same population.
+   */
+  private SteadyStatePopulation steadyState(SteadyStatePopulation current) {
+
+    this.metrics.begin();
+    var needed =
+        (int) FastMath.ceil((1.0 - current.getElitismRate()) * current.getPopulationSize());
+    var stream = this.random.forGeneration(this.getGenerationsEvolved() + 1);
+    var previous = this.random.bind(stream);
+    try {
+      for (int i = 0; i < needed; i += 2) {
+        var time = System.nanoTime();
+        var parents = this.getSelectionPolicy().select(current);
+        time = this.metrics.lap(Phase.SELECTION, time);
+        var pair = this.reproduce(parents, stream, time);
+        this.settle(current, pair.getFirst(), parents);
+        if (i + 1 < needed) this.settle(current, pair.getSecond(), parents);
+      }
+    } finally {
+      this.random.bind(previous);
+    }
+    this.metrics.end(this.getGenerationsEvolved() + 1, needed, current);
+    this.progress(current);
+    return current;
+  }
+
+  /**
+   * Evaluate an offspring and insert it into a steady-state population, unless it is a rejected
+   * duplicate.
+   *
+   * @param current population to insert into.
+   * @param offspring offspring bred.
+   * @param parents chromosomes of the population the offspring was bred from.
+   */
+  private void settle(SteadyStatePopulation current, Chromosome offspring, ChromosomePair parents) {
+
+    offspring = this.distinct(current, offspring);
+    if (offspring == null) return;
+    var time = System.nanoTime();
+    offspring.getFitness();
+    time = this.metrics.lap(Phase.EVALUATION, time);
+    current.insert(offspring, parents);
+    this.metrics.lap(Phase.ELITISM, time);
+  }
+
+  private ChromosomePair mutate(ChromosomePair pair) {
+
+    return new ChromosomePair(
+        this.getMutationPolicy().mutate(pair.getFirst()),
+        this.getMutationPolicy().mutate(pair.getSecond()));
+  }
+
+  /**
+   * Evaluate fitness of all chromosomes in parallel, if not yet evaluated. Chromosomes evaluated
+   * from scratch are evaluated in blocks by {@link BatchEvaluation}.
+   *
+   * @param chromosomes chromosomes to evaluate.
+   */
+  public void evaluate(List<Chromosome> chromosomes) {
+
+    if (this.pool == null) {
+      BatchEvaluation.evaluate(chromosomes);
+      chromosomes.forEach(Chromosome::getFitness);
+    } else
+      this.pool
+          .submit(
+              () -> {
+                var block = BatchEvaluation.BLOCK;
+                IntStream.range(0, (chromosomes.size() + block - 1) / block)
+                    .parallel()
+                    .forEach(
+                        b ->
+                            BatchEvaluation.evaluate(
+                                chromosomes.subList(
+                                    b * block, Math.min((b + 1) * block, chromosomes.size()))));
+                chromosomes.parallelStream().forEach(Chromosome::getFitness);
+              })
+          .join();
+  }
+
+  /**
+   * Replace populations stuck at a local optimum after each generation.
+   *
+   * @param stagnation detection and response, or null to evolve on regardless.
+   */
+  public void setStagnation(Stagnation stagnation) {
+
+    this.stagnation = stagnation;
+  }
+
+  public Stagnation getStagnation() {
+
+    return this.stagnation;
+  }
+
+  /**
+   * Keep offspring identical to a chromosome of the population they join out of it, so that clones
+   * of the elite and of parents copied unchanged do not crowd the population.
+   *
+   * @param duplicates what becomes of duplicate offspring, or null to keep them.
+   */
+  public void setDuplicates(MyPopulation.Duplicates duplicates) {
+
+    this.duplicates = duplicates;
+  }
+
+  public MyPopulation.Duplicates getDuplicates() {
+
+    return this.duplicates;
+  }
+
+  /**
+   * Set number of worker threads for breeding and fitness evaluation.
+   *
+   * @param parallelism number of threads, 1 for running on the calling thread.
+   */
+  public void setParallelism(int parallelism) {
+
+    if (this.pool != null) this.pool.shutdown();
+    this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+  }
+
+  public int getParallelism() {
+
+    return this.pool == null ? 1 : this.pool.getParallelism();
+  }
+
+  public void setLabel(String label) {
+
+    this.label = label;
+  }
+
+  public String getLabel() {
+
+    return this.label;
+  }
+
+  public GenerationMetrics getMetrics() {
+
+    return this.metrics;
+  }
+
+  public RandomContext getRandom() {
+
+    return this.random;
+  }
+
   public void log(String text) {
 
-    System.out.println(text);
-    this.text_log.add(text);
+    synchronized (this.text_log) {
+      System.out.println(text);
+      this.text_log.add(text);
+    }
   }
 }
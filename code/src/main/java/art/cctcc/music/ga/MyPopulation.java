@@ -15,24 +15,71 @@
  */
 package art.cctcc.music.ga;
 
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.stream.Stream;
 import org.apache.commons.math3.genetics.Chromosome;
 import org.apache.commons.math3.genetics.ElitisticListPopulation;
 import org.apache.commons.math3.util.FastMath;
 
 /**
+ * Population keeping its elite by partial selection instead of sorting. The fittest chromosomes
+ * are ranked once with a bounded heap in O(n log k) and reused until the population changes.
+ *
  * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
  */
 public class MyPopulation extends ElitisticListPopulation {
 
-  public MyPopulation(int populationLimit, double elitismRate, int chord_no) {
+  /** How the chromosomes of an initial population are drawn. */
+  public enum Initialization {
+    /** Every note uniformly from the register of its voice. */
+    UNIFORM,
+    /**
+     * Melodies walking through triads and sevenths, see {@link
+     * Individual#getRandomWalkChromosome}.
+     */
+    RANDOM_WALK
+  }
 
-    super(populationLimit, elitismRate);
-    Stream.generate(() -> new Individual(chord_no))
-        .limit(populationLimit)
-        .forEach(this::addChromosome);
+  /** What becomes of an offspring identical to a chromosome already in the population. */
+  public enum Duplicates {
+    /** Drop it, breeding another one in its place. */
+    REJECT,
+    /** Mutate it again until it is distinct, dropping it if it still is not after a few tries. */
+    REMUTATE
+  }
+
+  /** Indices of the fittest chromosomes, fittest first, or null once the population changed. */
+  private int[] ranking;
+
+  /** Fitness of each chromosome, or null once the population changed. */
+  private volatile double[] fitnesses;
+
+  /** Genomes of the chromosomes, or null until looked up and once the population changed. */
+  private GenomeSet genomes;
+
+  public MyPopulation(
+      RunContext context,
+      int populationLimit,
+      double elitismRate,
+      int chord_no,
+      SplittableRandom random) {
+
+    this(context, populationLimit, elitismRate, chord_no, random, Initialization.UNIFORM);
+  }
+
+  public MyPopulation(
+      RunContext context,
+      int populationLimit,
+      double elitismRate,
+      int chord_no,
+      SplittableRandom random,
+      Initialization initialization) {
+
+    this(populationLimit, elitismRate);
+    this.populate(context, chord_no, random, initialization);
   }
 
   public MyPopulation(int populationLimit, double elitismRate) {
@@ -40,17 +87,136 @@ public class MyPopulation extends ElitisticListPopulation {
     super(populationLimit, elitismRate);
   }
 
+  /** Fill the population with random chromosomes. */
+  void populate(
+      RunContext context, int chord_no, SplittableRandom random, Initialization initialization) {
+
+    var voice = context.getVoice();
+    this.addChromosomes(
+        Stream.generate(
+                () ->
+                    switch (initialization) {
+                      case UNIFORM -> Individual.getRandomChromosome(voice, chord_no, random);
+                      case RANDOM_WALK ->
+                          Individual.getRandomWalkChromosome(voice, chord_no, random);
+                    })
+            .limit(this.getPopulationLimit())
+            .<Chromosome>map(genes -> new Individual(context, genes))
+            .toList());
+  }
+
+  @Override
+  public void addChromosome(Chromosome chromosome) {
+
+    super.addChromosome(chromosome);
+    this.invalidate();
+  }
+
+  @Override
+  public void addChromosomes(Collection<Chromosome> chromosomeColl) {
+
+    super.addChromosomes(chromosomeColl);
+    this.invalidate();
+  }
+
+  /**
+   * Get the chromosomes without wrapping them, also for selection in this package.
+   *
+   * @return backing list of chromosomes, not to be modified but by this population.
+   */
+  @Override
+  protected List<Chromosome> getChromosomeList() {
+
+    return super.getChromosomeList();
+  }
+
+  /**
+   * Add a chromosome unless an identical one is in the population already.
+   *
+   * @param chromosome chromosome to add.
+   * @return true if the chromosome was added.
+   */
+  public boolean addDistinct(Chromosome chromosome) {
+
+    var genomes = this.getGenomes();
+    if (genomes.contains((Individual) chromosome)) return false;
+    this.addChromosome(chromosome);
+    genomes.add((Individual) chromosome);
+    this.genomes = genomes;
+    return true;
+  }
+
+  /**
+   * Check if an identical chromosome is in the population, in O(1) once the genomes are hashed.
+   *
+   * @param chromosome chromosome to look up.
+   * @return true if a chromosome has the same genes.
+   */
+  public boolean contains(Chromosome chromosome) {
+
+    return this.getGenomes().contains((Individual) chromosome);
+  }
+
+  /**
+   * Hash the genomes of the chromosomes, kept until the population changes other than by {@link
+   * #addDistinct} or {@link #replaced}.
+   *
+   * @return multiset of genomes.
+   */
+  private GenomeSet getGenomes() {
+
+    if (this.genomes == null) {
+      var chromosomes = this.getChromosomeList();
+      this.genomes = new GenomeSet(this.getPopulationLimit());
+      for (var chromosome : chromosomes) this.genomes.add((Individual) chromosome);
+    }
+    return this.genomes;
+  }
+
+  /**
+   * Keep the hashed genomes up to date once a chromosome was replaced in place.
+   *
+   * @param removed chromosome replaced.
+   * @param added chromosome replacing it.
+   */
+  void replaced(Chromosome removed, Chromosome added) {
+
+    if (this.genomes != null) {
+      this.genomes.remove((Individual) removed);
+      this.genomes.add((Individual) added);
+    }
+  }
+
+  /** Forget the ranking, fitness and genomes once the chromosomes changed. */
+  void invalidate() {
+
+    this.ranking = null;
+    this.fitnesses = null;
+    this.genomes = null;
+  }
+
+  /**
+   * Start the next generation with the elite, in ascending order of fitness as a stable sort of
+   * the whole population would leave it.
+   */
   @Override
   public MyPopulation nextGeneration() {
 
     var nextGeneration = new MyPopulation(getPopulationLimit(), getElitismRate());
-    getChromosomes().stream()
-        .sorted()
-        .skip((int) FastMath.ceil((1.0 - getElitismRate()) * getPopulationSize()))
-        .forEach(nextGeneration::addChromosome);
+    var chromosomes = this.getChromosomeList();
+    var skipped = (int) FastMath.ceil((1.0 - getElitismRate()) * getPopulationSize());
+    var elite = top(this.getFitnesses(), getPopulationSize() - skipped, true);
+    for (int i = elite.length - 1; i >= 0; i--)
+      nextGeneration.addChromosome(chromosomes.get(elite[i]));
     return nextGeneration;
   }
 
+  @Override
+  public Chromosome getFittestChromosome() {
+
+    return this.getFittestChromosomes(1).get(0);
+  }
+
   /**
    * Access the fittest chromosome in this population.
    *
@@ -58,10 +224,116 @@ public class MyPopulation extends ElitisticListPopulation {
    */
   public List<Chromosome> getFittestChromosomes() {
 
-    return this.getChromosomes().stream()
-        .sorted(Comparator.reverseOrder())
-        .limit((int) Math.max(1, this.getPopulationSize() * getElitismRate()))
-        .toList();
+    return getFittestChromosomes(this.getEliteSize());
+  }
+
+  /**
+   * Access the specified number of fittest chromosomes in this population.
+   *
+   * @param count number of chromosomes.
+   * @return the fittest chromosomes in descending order of fitness, the earlier first among equals.
+   */
+  public List<Chromosome> getFittestChromosomes(int count) {
+
+    count = Math.min(count, this.getPopulationSize());
+    if (this.ranking == null || this.ranking.length < count)
+      this.ranking = top(this.getFitnesses(), Math.max(count, this.getEliteSize()), false);
+    var chromosomes = this.getChromosomeList();
+    return Arrays.stream(this.ranking, 0, count).mapToObj(chromosomes::get).toList();
+  }
+
+  private int getEliteSize() {
+
+    return (int) Math.max(1, this.getPopulationSize() * getElitismRate());
+  }
+
+  /**
+   * Get the fitness of each chromosome, evaluated once until the population changes. Racing
+   * threads compute identical arrays.
+   *
+   * @return shared array in the order of chromosomes, not to be modified.
+   */
+  public double[] getFitnesses() {
+
+    var result = this.fitnesses;
+    if (result == null) this.fitnesses = result = this.evaluate();
+    return result;
+  }
+
+  /**
+   * Evaluate the fitness of each chromosome.
+   *
+   * @return new array in the order of chromosomes.
+   */
+  double[] evaluate() {
+
+    return this.getChromosomeList().stream().mapToDouble(Chromosome::getFitness).toArray();
+  }
+
+  /**
+   * Select the fittest indices with a bounded heap, whose root is the least fit one kept.
+   *
+   * @param fitness fitness of each chromosome.
+   * @param k number of indices to select.
+   * @param laterFirst true to rank later indices higher among equal fitness.
+   * @return indices of the k fittest, fittest first.
+   */
+  static int[] top(double[] fitness, int k, boolean laterFirst) {
+
+    k = Math.min(k, fitness.length);
+    var heap = new int[k];
+    for (int i = 0; i < fitness.length; i++)
+      if (i < k) {
+        // sift up
+        var j = i;
+        while (j > 0 && isFitter(fitness, heap[(j - 1) / 2], i, laterFirst)) {
+          heap[j] = heap[(j - 1) / 2];
+          j = (j - 1) / 2;
+        }
+        heap[j] = i;
+      } else if (k > 0 && isFitter(fitness, i, heap[0], laterFirst))
+        siftDown(fitness, heap, i, k, laterFirst);
+    // heap sort, moving the least fit to the end
+    for (int end = k - 1; end > 0; end--) {
+      var least = heap[0];
+      siftDown(fitness, heap, heap[end], end, laterFirst);
+      heap[end] = least;
+    }
+    return heap;
+  }
+
+  private static void siftDown(
+      double[] fitness, int[] heap, int index, int size, boolean laterFirst) {
+
+    var j = 0;
+    while (2 * j + 1 < size) {
+      var child = 2 * j + 1;
+      if (child + 1 < size && isFitter(fitness, heap[child], heap[child + 1], laterFirst)) child++;
+      if (!isFitter(fitness, index, heap[child], laterFirst)) break;
+      heap[j] = heap[child];
+      j = child;
+    }
+    heap[j] = index;
+  }
+
+  private static boolean isFitter(double[] fitness, int a, int b, boolean laterFirst) {
+
+    var c = Double.compare(fitness[a], fitness[b]);
+    return c > 0 || c == 0 && (laterFirst ? a > b : a < b);
+  }
+
+  /**
+   * Replace the least fit chromosomes with migrants from other populations.
+   *
+   * @param migrants incoming chromosomes.
+   */
+  public void immigrate(List<Chromosome> migrants) {
+
+    var chromosomes = this.getChromosomeList();
+    chromosomes.sort(null);
+    for (int i = 0; i < Math.min(migrants.size(), chromosomes.size()); i++)
+      chromosomes.set(i, migrants.get(i));
+    this.invalidate();
   }
 
   public double getAvgFitness() {
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.exception.util.LocalizedFormats;
+import org.apache.commons.math3.genetics.Chromosome;
+import org.apache.commons.math3.genetics.ChromosomePair;
+import org.apache.commons.math3.genetics.ListPopulation;
+import org.apache.commons.math3.genetics.Population;
+import org.apache.commons.math3.genetics.SelectionPolicy;
+
+/**
+ * Tournament selection drawing from the run's {@link RandomContext}. Contestants are sampled as
+ * distinct indices into the population, in the same way as the commons-math policy removes them
+ * from a copy of the list, so no chromosome list is copied. Chromosomes and fitness of a {@link
+ * MyPopulation} are read from its backing list and {@link MyPopulation#getFitnesses()}, so nothing
+ * is allocated per tournament but the returned pair. Other populations are read through their
+ * unmodifiable list.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class MyTournamentSelection implements SelectionPolicy {
+
+  private final RandomContext random;
+  private final int arity;
+
+  /** Indices drawn in the current tournament in ascending order, per thread. */
+  private final ThreadLocal<int[]> drawn;
+
+  public MyTournamentSelection(RandomContext random, int arity) {
+
+    this.random = random;
+    this.arity = arity;
+    this.drawn = ThreadLocal.withInitial(() -> new int[arity]);
+  }
+
+  @Override
+  public ChromosomePair select(Population population) throws MathIllegalArgumentException {
+
+    if (population instanceof ListPopulation list) {
+      if (list.getPopulationSize() < this.arity)
+        throw new MathIllegalArgumentException(
+            LocalizedFormats.TOO_LARGE_TOURNAMENT_ARITY, this.arity, list.getPopulationSize());
+      var my = list instanceof MyPopulation p ? p : null;
+      var chromosomes = my != null ? my.getChromosomeList() : list.getChromosomes();
+      var fitness = my != null ? my.getFitnesses() : null;
+      var r = this.random.current();
+      return new ChromosomePair(
+          chromosomes.get(tournament(chromosomes, fitness, r)),
+          chromosomes.get(tournament(chromosomes, fitness, r)));
+    }
+    throw new MathIllegalArgumentException(
+        LocalizedFormats.RANDOMKEY_MUTATION_WRONG_CLASS, population);
+  }
+
+  /**
+   * Hold a tournament, keeping the first drawn among equally fit contestants.
+   *
+   * @param chromosomes population.
+   * @param fitness fitness of each chromosome, or null to read them from chromosomes.
+   * @param r random stream.
+   * @return index of the winner.
+   */
+  private int tournament(List<Chromosome> chromosomes, double[] fitness, SplittableRandom r) {
+
+    var drawn = this.drawn.get();
+    var fittest = -1;
+    for (int i = 0; i < this.arity; i++) {
+      // the j-th of the chromosomes not drawn yet
+      var candidate = r.nextInt(chromosomes.size() - i);
+      var k = 0;
+      while (k < i && drawn[k] <= candidate) {
+        candidate++;
+        k++;
+      }
+      System.arraycopy(drawn, k, drawn, k + 1, i - k);
+      drawn[k] = candidate;
+      if (fittest < 0
+          || Double.compare(
+                  fitness(chromosomes, fitness, candidate), fitness(chromosomes, fitness, fittest))
+              > 0) fittest = candidate;
+    }
+    return fittest;
+  }
+
+  private static double fitness(List<Chromosome> chromosomes, double[] fitness, int index) {
+
+    return fitness == null ? chromosomes.get(index).getFitness() : fitness[index];
+  }
+
+  public int getArity() {
+
+    return this.arity;
+  }
+}
@@ -19,6 +19,7 @@ import static art.cctcc.music.Settings.*;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.stream.IntStream;
 
 /**
@@ -34,12 +35,13 @@ public enum Pitch {
    * Get random note according to voice register specified.
    *
    * @param voice <code>'S', 'A', 'T', 'B'</code> for Soprano, Alto, Tenor and Bass.
+   * @param random random stream to draw from.
    * @return random note in the specified register.
    */
-  public static int getNote(char voice) {
+  public static int getNote(char voice, SplittableRandom random) {
 
     var register = getRegister(voice);
-    return R.nextInt(register[1].ordinal() - register[0].ordinal() + 1) + register[0].ordinal();
+    return random.nextInt(register[1].ordinal() - register[0].ordinal() + 1) + register[0].ordinal();
   }
 
   public static boolean isInRegister(char voice, int p) {
@@ -69,10 +71,11 @@ public enum Pitch {
     };
   }
 
-  public static boolean isConsonantChordFromBasso(List<Integer> ords, boolean checkBass) {
+  public static boolean isConsonantChordFromBasso(
+      String voice, List<Integer> ords, boolean checkBass) {
 
     var lowest = ords.stream().mapToInt(v -> v).sorted().findFirst().getAsInt();
-    return (!checkBass || Individual.VOICE.charAt(ords.indexOf(lowest)) == 'B')
+    return (!checkBass || voice.charAt(ords.indexOf(lowest)) == 'B')
         && ords.stream().allMatch(p -> isConsonantInterval(lowest, p, false));
   }
 
@@ -96,53 +99,27 @@ public enum Pitch {
 
   public static char triadChordTest(List<Integer> ords) {
 
-    if (getPitchSet(ords).equals(Set.of("B", "D", "F"))) return 'X';
-    var nset = getNumbers(ords);
-    if (!nset.equals(Set.of(5, 3))
-        && !nset.equals(Set.of(3))
-        && !nset.equals(Set.of(6, 3))
-        && !nset.equals(Set.of(6, 4))) return 'X';
-    return getRoot(ords);
+    return ChordTable.triadChordTest(ChordTable.key(ords));
   }
 
   public static char seventhChordTest(List<Integer> ords) {
 
-    if (Set.of("B", "D", "F").equals(getPitchSet(ords))) return 'B';
-    var nset = getNumbers(ords);
-    if (!nset.equals(Set.of(7, 5, 3))
-        && !nset.equals(Set.of(7, 3))
-        && !nset.equals(Set.of(6, 5, 3))
-        && !nset.equals(Set.of(6, 5))
-        && !nset.equals(Set.of(6, 4, 3))
-        && !nset.equals(Set.of(6, 4, 2))
-        && !nset.equals(Set.of(4, 2))) return 'X';
-    return Character.toLowerCase(getRoot(ords));
+    return ChordTable.seventhChordTest(ChordTable.key(ords));
   }
 
   public static char getRoot(List<Integer> ords) {
 
-    var pitches = translateO2P(ords);
-    for (var pitch : pitches) {
-      var chord = SEVENTHS.stream().filter(c -> c.startsWith(pitch.getStep())).findFirst().get();
-      if (pitches.stream().map(Pitch::getStep).allMatch(chord::contains)) return chord.charAt(0);
-    }
-    return 'X';
+    return ChordTable.getRoot(ChordTable.key(ords));
   }
 
   public static boolean isRootPosition(List<Integer> ords) {
 
-    var numbers = getNumbers(ords);
-    if (Set.of("B", "D", "F").equals(getPitchSet(ords))) return numbers.equals(Set.of(6, 3));
-    return numbers.contains(3) && Set.of(7, 5, 3).containsAll(numbers);
+    return ChordTable.isRootPosition(ChordTable.key(ords));
   }
 
   public static Set<Integer> getNumbers(List<Integer> ords) {
 
-    return Set.copyOf(
-        ords.stream()
-            .map(ord -> (ord - Pitch.getBottom(ords)) % 7 + 1)
-            .filter(n -> n > 1)
-            .toList());
+    return ChordTable.getNumbers(ChordTable.key(ords));
   }
 
   public static int getBottom(List<Integer> ords) {
@@ -163,16 +140,8 @@ public enum Pitch {
    */
   public static List<Integer> locateSeventhNote(List<Integer> ords) {
 
-    var root = "" + getRoot(ords);
-    var seventh =
-        getPitchSet(ords).equals(Set.of("B", "D", "F"))
-            ? "F"
-            : "" + SEVENTHS.stream().filter(c -> c.startsWith(root)).findAny().get().charAt(3);
-    var chord = translateO2P(ords);
-    return IntStream.range(0, ords.size())
-        .filter(i -> chord.get(i).getStep().equals(seventh))
-        .boxed()
-        .toList();
+    var seventh = ChordTable.getSeventhStep(ChordTable.key(ords));
+    return IntStream.range(0, ords.size()).filter(i -> ords.get(i) % 7 == seventh).boxed().toList();
   }
 
   public static Set<String> getPitchSet(Integer... ords) {
@@ -182,7 +151,7 @@ public enum Pitch {
 
   public static Set<String> getPitchSet(List<Integer> ords) {
 
-    return Set.copyOf(Pitch.translateO2P(ords).stream().map(Pitch::getStep).toList());
+    return ChordTable.getPitchSet(ChordTable.key(ords));
   }
 
   public static List<Pitch> translateO2P(List<Integer> ords) {
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import static art.cctcc.music.ga.Evaluation.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Exact solver of the progression of least penalty for the rules which decompose into chord
+ * positions, by dynamic programming over pairs of successive chords.
+ *
+ * <p>Terms of a position depend on the chord there and the previous one, see {@link
+ * Evaluation#computeTerms}, except for the 3-note figures of {@link Evaluation#MelodicSmoothness},
+ * which also depend on the chord before. The least penalty of progressions ending with chords b, c
+ * thus follows from those ending with a, b, as in the Viterbi algorithm. The search is restricted
+ * to triads and sevenths, melodies moving by feasible steps, a triad first and a proper cadence at
+ * the end, i.e. {@link Evaluation#StartWithNonTriad} and {@link
+ * Evaluation#ImproperCadentialForm} are constraints rather than penalties. The skip-minus-step
+ * balance of melodic smoothness only counts when positive over a whole melody, so it enters with
+ * every step instead, and the optimum is a lower bound of the penalty of the solution.
+ *
+ * <p>Predecessors of a chord are tried in ascending order of their penalty so far, which bounds
+ * any better path, so most 3-chord transitions are never evaluated. The chords of all voicings
+ * up to 4 voices fit in memory; larger ones are rejected.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class ProgressionSolver {
+
+  /**
+   * Optimal progression.
+   *
+   * @param individual chords of the progression.
+   * @param penalty least penalty of the decomposable rules, a lower bound of its actual penalty.
+   */
+  public record Solution(Individual individual, double penalty) {}
+
+  /** Chords are indexed by 16 bits in back pointers. */
+  private static final int MAX_CHORDS = 1 << 16;
+
+  /** Largest number of voicings enumerated in search of triads and sevenths. */
+  private static final int MAX_SPACE = 1 << 24;
+
+  private final RunContext context;
+  private final String voice;
+  private final int n;
+
+  /** Pitches of each triad or seventh, chord-major. */
+  private final int[] chords;
+  private final int size;
+
+  /** Pairs starting with chord a are <code>outStart[a]</code> to <code>outStart[a + 1]</code>. */
+  private final int[] outStart;
+  /** Chord ending each pair, ascending among pairs of the same start. */
+  private final int[] outChord;
+  private final int[] pairStart;
+
+  /** Pairs ending with chord b are <code>inPair[inStart[b]]</code> and so on. */
+  private final int[] inStart;
+  private final int[] inPair;
+
+  private final double melodicPenalty;
+
+  /** Pool for the transitions of each position, or null to run on the calling thread. */
+  private ForkJoinPool pool;
+
+  /**
+   * Enumerate the chords of the voicing and their feasible successions.
+   *
+   * @param context run whose voicing and evaluations to solve for.
+   */
+  public ProgressionSolver(RunContext context) {
+
+    this.context = context;
+    this.voice = context.getVoice();
+    this.n = this.voice.length();
+
+    var low = new int[n];
+    var radix = new int[n];
+    var space = 1L;
+    for (int v = 0; v < n; v++) {
+      var register = Pitch.getRegister(this.voice.charAt(v));
+      low[v] = register[0].ordinal();
+      radix[v] = register[1].ordinal() - low[v] + 1;
+      space *= radix[v];
+    }
+    if (space > MAX_SPACE)
+      throw new IllegalArgumentException("ProgressionSolver: Too many voicings of " + this.voice);
+
+    // index of each chord by its mixed-radix code, -1 for other chords
+    var index = new int[(int) space];
+    var found = new int[(int) space * n];
+    var count = 0;
+    var pitches = new int[n];
+    for (int code = 0; code < space; code++) {
+      for (int v = n - 1, c = code; v >= 0; c /= radix[v--]) pitches[v] = low[v] + c % radix[v];
+      if (ChordTable.getSeriesSymbol(ChordTable.key(pitches, 0, n)) == 'X') index[code] = -1;
+      else {
+        System.arraycopy(pitches, 0, found, count * n, n);
+        index[code] = count++;
+      }
+    }
+    if (count >= MAX_CHORDS)
+      throw new IllegalArgumentException("ProgressionSolver: Too many chords of " + this.voice);
+    this.size = count;
+    this.chords = Arrays.copyOf(found, count * n);
+
+    var successors =
+        IntStream.range(0, this.size)
+            .mapToObj(a -> this.successors(a, low, radix, index))
+            .toArray(int[][]::new);
+    this.outStart = new int[this.size + 1];
+    for (int a = 0; a < this.size; a++)
+      this.outStart[a + 1] = this.outStart[a] + successors[a].length;
+    var pairs = this.outStart[this.size];
+    this.outChord = new int[pairs];
+    this.pairStart = new int[pairs];
+    this.inStart = new int[this.size + 1];
+    for (int a = 0; a < this.size; a++) {
+      System.arraycopy(successors[a], 0, this.outChord, this.outStart[a], successors[a].length);
+      Arrays.fill(this.pairStart, this.outStart[a], this.outStart[a + 1], a);
+      for (var b : successors[a]) this.inStart[b + 1]++;
+    }
+    for (int b = 0; b < this.size; b++) this.inStart[b + 1] += this.inStart[b];
+    this.inPair = new int[pairs];
+    var filled = Arrays.copyOf(this.inStart, this.size);
+    for (int q = 0; q < pairs; q++) this.inPair[filled[this.outChord[q]]++] = q;
+
+    this.melodicPenalty =
+        context.getEvals().contains(MelodicSmoothness) ? MelodicSmoothness.getPenalty(1) : 0;
+  }
+
+  /** Triads and sevenths following a chord with every voice moving by a feasible step. */
+  private int[] successors(int a, int[] low, int[] radix, int[] index) {
+
+    var candidates = new int[n][];
+    for (int v = 0; v < n; v++)
+      candidates[v] = MelodicTable.getCandidatesAfter(this.voice.charAt(v), this.chords[a * n + v]);
+    var result = new int[16];
+    var count = 0;
+    var digit = new int[n];
+    while (true) {
+      var code = 0;
+      for (int v = 0; v < n; v++) code = code * radix[v] + candidates[v][digit[v]] - low[v];
+      if (index[code] >= 0) {
+        if (count == result.length) result = Arrays.copyOf(result, count * 2);
+        result[count++] = index[code];
+      }
+      var v = n - 1;
+      while (v >= 0 && ++digit[v] == candidates[v].length) digit[v--] = 0;
+      if (v < 0) break;
+    }
+    result = Arrays.copyOf(result, count);
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * Set number of worker threads for the transitions of each position.
+   *
+   * @param parallelism number of threads, 1 for running on the calling thread.
+   */
+  public void setParallelism(int parallelism) {
+
+    if (this.pool != null) this.pool.shutdown();
+    this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+  }
+
+  public int getChordCount() {
+
+    return this.size;
+  }
+
+  public int getPairCount() {
+
+    return this.outChord.length;
+  }
+
+  /**
+   * Find the progression of least penalty.
+   *
+   * @param chord_no number of chords, at least 2.
+   * @return optimal progression, or null if no progression satisfies the constraints.
+   */
+  public Solution solve(int chord_no) {
+
+    if (chord_no < 2)
+      throw new IllegalArgumentException("ProgressionSolver: Invalid chord number " + chord_no);
+    var pairs = this.outChord.length;
+    var first = new double[this.size];
+    this.run(this.size, a -> first[a] = this.penalty(new int[] {a}, 2));
+    var last = this.pairPenalties(2);
+    var inner = chord_no > 2 ? this.pairPenalties(3) : last;
+    var cost = new double[pairs];
+    for (int q = 0; q < pairs; q++) cost[q] = first[this.pairStart[q]] + inner[q];
+
+    var back = new char[chord_no][];
+    for (int pos = 2; pos < chord_no; pos++) {
+      var step = pos == chord_no - 1 ? last : inner;
+      var previous = cost.clone();
+      var pointers = back[pos] = new char[pairs];
+      this.run(this.size, b -> this.transitions(b, previous, step, cost, pointers));
+    }
+
+    var best = 0;
+    for (int q = 1; q < pairs; q++) if (cost[q] < cost[best]) best = q;
+    if (Double.isInfinite(cost[best])) return null;
+    var progression = new int[chord_no];
+    progression[chord_no - 2] = this.pairStart[best];
+    progression[chord_no - 1] = this.outChord[best];
+    for (int pos = chord_no - 1, q = best; pos >= 2; pos--) {
+      progression[pos - 2] = back[pos][q];
+      q = this.pair(progression[pos - 2], progression[pos - 1]);
+    }
+    var genes = new int[chord_no * n];
+    for (int pos = 0; pos < chord_no; pos++)
+      System.arraycopy(this.chords, progression[pos] * n, genes, pos * n, n);
+    return new Solution(new Individual(this.context, genes), Math.max(0, cost[best]));
+  }
+
+  /**
+   * Least penalties of pairs b, c from those of pairs a, b, trying a in ascending order of penalty
+   * until it alone exceeds the best found.
+   */
+  private void transitions(int b, double[] previous, double[] step, double[] cost, char[] back) {
+
+    var order =
+        IntStream.range(this.inStart[b], this.inStart[b + 1])
+            .map(k -> this.inPair[k])
+            .boxed()
+            .sorted(Comparator.comparingDouble(p -> previous[p]))
+            .mapToInt(Integer::intValue)
+            .toArray();
+    for (int q = this.outStart[b]; q < this.outStart[b + 1]; q++) {
+      var c = this.outChord[q];
+      var best = Double.POSITIVE_INFINITY;
+      var from = 0;
+      for (var p : order) {
+        if (previous[p] >= best) break;
+        var a = this.pairStart[p];
+        var total = previous[p] + this.melodicPenalty * this.infeasibleFigures(a, b, c);
+        if (total < best) {
+          best = total;
+          from = a;
+        }
+      }
+      cost[q] = best + step[q];
+      back[q] = (char) from;
+    }
+  }
+
+  private int infeasibleFigures(int a, int b, int c) {
+
+    var count = 0;
+    for (int v = 0; v < n; v++)
+      if (!MelodicTable.isFeasible(
+          this.voice.charAt(v),
+          this.chords[a * n + v],
+          this.chords[b * n + v],
+          this.chords[c * n + v])) count++;
+    return count;
+  }
+
+  /**
+   * Penalty of the second chord of each pair, besides 3-note figures.
+   *
+   * @param chords 2 if the second chord is the last one, 3 otherwise.
+   */
+  private double[] pairPenalties(int chords) {
+
+    var result = new double[this.outChord.length];
+    this.run(
+        this.size,
+        a -> {
+          for (int q = this.outStart[a]; q < this.outStart[a + 1]; q++)
+            result[q] = this.penalty(new int[] {a, this.outChord[q]}, chords);
+        });
+    return result;
+  }
+
+  /**
+   * Penalty of the terms of the last chord of a progression of up to 2 chords and of the skips
+   * and steps leading to it, infinite if a constraint is violated.
+   *
+   * @param progression chord indices.
+   * @param chords chord number, telling whether the last chord ends the whole progression.
+   */
+  private double penalty(int[] progression, int chords) {
+
+    var genes = new int[progression.length * n];
+    for (int pos = 0; pos < progression.length; pos++)
+      System.arraycopy(this.chords, progression[pos] * n, genes, pos * n, n);
+    var evals = this.context.getEvals();
+    var offsets = this.context.getTermOffsets();
+    var terms = new int[offsets[evals.size()]];
+    var penalty = 0.0;
+    for (int e = 0; e < evals.size(); e++) {
+      var eval = evals.get(e);
+      eval.computeTerms(genes, this.voice, chords, progression.length - 1, terms, offsets[e]);
+      var count = terms[offsets[e]];
+      if (count > 0 && (eval == StartWithNonTriad || eval == ImproperCadentialForm))
+        return Double.POSITIVE_INFINITY;
+      penalty += eval.getPenalty(count);
+    }
+    if (progression.length == 2)
+      for (int v = 0; v < n; v++)
+        penalty +=
+            Math.abs(genes[v] - genes[n + v]) > 1 ? this.melodicPenalty : -this.melodicPenalty;
+    return penalty;
+  }
+
+  private int pair(int a, int b) {
+
+    return this.outStart[a]
+        + Arrays.binarySearch(this.outChord, this.outStart[a], this.outStart[a + 1], b)
+        - this.outStart[a];
+  }
+
+  private void run(int count, IntConsumer task) {
+
+    if (this.pool == null) IntStream.range(0, count).forEach(task);
+    else this.pool.submit(() -> IntStream.range(0, count).parallel().forEach(task)).join();
+  }
+
+  public static void main(String... args) {
+
+    var voice = args.length > 0 ? args[0] : "SATB";
+    var chord_no = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    var threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+    var start = System.nanoTime();
+    var solver = new ProgressionSolver(new RunContext(voice, List.of(Evaluation.values())));
+    solver.setParallelism(threads);
+    System.out.printf(
+        "%d chords, %d feasible successions%n", solver.getChordCount(), solver.getPairCount());
+    var solution = solver.solve(chord_no);
+    if (solution == null) System.out.println("No progression satisfies the constraints.");
+    else {
+      System.out.println(solution.individual());
+      System.out.printf("penalty >= %f%n", solution.penalty());
+      System.out.printf("fitness = %f%n", solution.individual().getFitness());
+    }
+    System.out.printf("%.1f s%n", (System.nanoTime() - start) / 1e9);
+    solver.setParallelism(1);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.SplittableRandom;
+
+/**
+ * Seeded random number streams of one run.
+ *
+ * <p>Each generation draws from its own stream derived from the seed and the generation number
+ * alone, which is split into one stream per chunk of work. Operators read the stream bound to the
+ * current thread, so no generator is shared between threads and a run is reproducible from its
+ * seed whatever the number of threads.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class RandomContext {
+
+  private final long seed;
+  private final ThreadLocal<SplittableRandom> current;
+
+  public RandomContext() {
+
+    this(new SplittableRandom().nextLong());
+  }
+
+  public RandomContext(long seed) {
+
+    this.seed = seed;
+    this.current = ThreadLocal.withInitial(() -> new SplittableRandom(seed));
+  }
+
+  public long getSeed() {
+
+    return this.seed;
+  }
+
+  /**
+   * Create the stream of specified generation.
+   *
+   * @param generation generation number, 0 for the initial population.
+   * @return a new stream depending only on the seed and the generation.
+   */
+  public SplittableRandom forGeneration(long generation) {
+
+    return new SplittableRandom(mix64(this.seed + 0x9e3779b97f4a7c15L * (generation + 1)));
+  }
+
+  /**
+   * Create the stream drawing fresh chromosomes when a population is replaced after a generation,
+   * see {@link Stagnation}.
+   *
+   * @param generation generation number of the replaced population.
+   * @return a new stream depending only on the seed and the generation, independent of the stream
+   *     of any generation.
+   */
+  public SplittableRandom forRestart(long generation) {
+
+    return new SplittableRandom(mix64(~this.seed + 0x9e3779b97f4a7c15L * (generation + 1)));
+  }
+
+  /**
+   * Create an independent context for a part of the run, e.g. an island.
+   *
+   * @param index index of the part.
+   * @return a new context whose seed depends only on this seed and the index.
+   */
+  public RandomContext derive(int index) {
+
+    return new RandomContext(mix64(this.seed ^ mix64(~(long) index)));
+  }
+
+  /**
+   * Get the stream bound to the calling thread.
+   *
+   * @return the bound stream, not to be shared with other threads.
+   */
+  public SplittableRandom current() {
+
+    return this.current.get();
+  }
+
+  /**
+   * Bind a stream to the calling thread.
+   *
+   * @param stream stream to be used by operators on this thread.
+   * @return previously bound stream, to be restored afterwards.
+   */
+  public SplittableRandom bind(SplittableRandom stream) {
+
+    var previous = this.current.get();
+    this.current.set(stream);
+    return previous;
+  }
+
+  private static long mix64(long z) {
+
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.List;
+
+/**
+ * Configuration of one run shared by all its individuals, so that runs with different voicings
+ * can evolve side by side in one JVM.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class RunContext {
+
+  private final String voice;
+  private final List<Evaluation> evals;
+  private final RandomContext random;
+
+  private final FitnessCache cache;
+
+  /** Offset of each evaluation's terms in a row of {@link FitnessTerms}, then the row width. */
+  private final int[] termOffsets;
+
+  /**
+   * @param voice voice types from top to bottom, e.g. <code>"SATB"</code>.
+   * @param evals evaluations making up the fitness.
+   * @param random random streams of the run.
+   * @param cache fitness cache, which may be shared with runs of the same voicing and evaluations.
+   */
+  public RunContext(
+      String voice, List<Evaluation> evals, RandomContext random, FitnessCache cache) {
+
+    if (!voice.matches("[SATB]{1,64}"))
+      throw new IllegalArgumentException("RunContext: Unexpected voice label in " + voice);
+    this.voice = voice;
+    this.evals = List.copyOf(evals);
+    this.random = random;
+    this.cache = cache;
+    this.termOffsets = new int[this.evals.size() + 1];
+    for (int i = 0; i < this.evals.size(); i++)
+      this.termOffsets[i + 1] = this.termOffsets[i] + this.evals.get(i).getTermWidth(voice);
+  }
+
+  public RunContext(String voice, List<Evaluation> evals, RandomContext random) {
+
+    this(voice, evals, random, new FitnessCache(FitnessCache.DEFAULT_CAPACITY));
+  }
+
+  public RunContext(String voice, List<Evaluation> evals) {
+
+    this(voice, evals, new RandomContext());
+  }
+
+  public String getVoice() {
+
+    return this.voice;
+  }
+
+  public List<Evaluation> getEvals() {
+
+    return this.evals;
+  }
+
+  public RandomContext getRandom() {
+
+    return this.random;
+  }
+
+  public FitnessCache getCache() {
+
+    return this.cache;
+  }
+
+  int[] getTermOffsets() {
+
+    return this.termOffsets;
+  }
+}
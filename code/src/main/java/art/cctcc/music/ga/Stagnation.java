@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * Detection of a population stuck at a local optimum, and the response to it.
+ *
+ * <p>A population stagnates when neither its best nor its elite average fitness improved for a
+ * number of generations, or when the share of distinct chromosomes in it fell below a minimum.
+ * The response replaces the population with fresh chromosomes, drawn as the initial ones, into
+ * which the fittest of the stagnated population immigrate, see {@link
+ * MyPopulation#immigrate(java.util.List)}. Counting starts afresh after each response, and after
+ * resuming a checkpointed run.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class Stagnation {
+
+  public enum Response {
+    /** Keep the elite and draw the others afresh, as do {@link #GROW} and {@link #SHRINK}. */
+    RESEED,
+    /** Draw all chromosomes afresh but the fittest, so that the best one found is not lost. */
+    RESTART,
+    /** Double the population limit, up to {@link #MAX_GROWTH} times the initial one. */
+    GROW,
+    /** Halve the population limit, down to 2 chromosomes. */
+    SHRINK
+  }
+
+  /** Draws fresh populations of the run. */
+  @FunctionalInterface
+  public interface Reseeding {
+
+    /**
+     * @param populationLimit population limit.
+     * @param random random stream to draw from.
+     * @return new population filled up to its limit.
+     */
+    MyPopulation create(int populationLimit, SplittableRandom random);
+  }
+
+  /** Largest population limit relative to the initial one when growing. */
+  public static final int MAX_GROWTH = 8;
+
+  private final Response response;
+  private final int patience;
+  private final double minDiversity;
+  private final Reseeding reseeding;
+
+  private int initialLimit;
+  private double best;
+  private double eliteAverage;
+  /** Generations since the best or elite average fitness last improved. */
+  private int stagnant;
+  private int responses;
+
+  /**
+   * @param response response to stagnation.
+   * @param patience generations without improvement before responding, 0 to only watch diversity.
+   * @param minDiversity least share of distinct chromosomes in a population, 0 to ignore
+   *     diversity.
+   * @param reseeding draws fresh populations of the run.
+   */
+  public Stagnation(Response response, int patience, double minDiversity, Reseeding reseeding) {
+
+    if (patience < 0 || minDiversity < 0 || minDiversity > 1)
+      throw new IllegalArgumentException(
+          String.format(
+              "Stagnation: Invalid patience=%d, minDiversity=%f", patience, minDiversity));
+    this.response = response;
+    this.patience = patience;
+    this.minDiversity = minDiversity;
+    this.reseeding = reseeding;
+    this.reset();
+  }
+
+  private void reset() {
+
+    this.best = Double.NEGATIVE_INFINITY;
+    this.eliteAverage = Double.NEGATIVE_INFINITY;
+    this.stagnant = 0;
+  }
+
+  /**
+   * Check the population of a generation, responding if it stagnates.
+   *
+   * @param population evaluated population.
+   * @param diversity diversity of the population, as recorded by {@link GenerationMetrics}.
+   * @param generation generation of the population.
+   * @param random random streams of the algorithm.
+   * @return the population, or the one replacing it.
+   */
+  MyPopulation check(
+      MyPopulation population, Diversity diversity, int generation, RandomContext random) {
+
+    if (this.initialLimit == 0) this.initialLimit = population.getPopulationLimit();
+    var fittest = population.getFittestChromosome().getFitness();
+    var elite = population.getAvgEliteFitness();
+    if (fittest > this.best || elite > this.eliteAverage) this.stagnant = 0;
+    else this.stagnant++;
+    this.best = Math.max(this.best, fittest);
+    this.eliteAverage = Math.max(this.eliteAverage, elite);
+    if ((this.patience == 0 || this.stagnant < this.patience)
+        && (this.minDiversity == 0
+            || (double) diversity.unique() / population.getPopulationSize() >= this.minDiversity))
+      return population;
+
+    var limit = population.getPopulationLimit();
+    limit =
+        switch (this.response) {
+          case GROW -> Math.min(2 * limit, MAX_GROWTH * this.initialLimit);
+          case SHRINK -> Math.max(2, limit / 2);
+          default -> limit;
+        };
+    var eliteSize = Math.min(limit, population.getPopulationSize()) * population.getElitismRate();
+    var kept = this.response == Response.RESTART ? 1 : (int) Math.max(1, eliteSize);
+    var fresh = this.reseeding.create(limit, random.forRestart(generation));
+    // packed populations evaluated their chromosomes as they were added
+    if (!(fresh instanceof ArenaPopulation)) BatchEvaluation.evaluate(fresh.getChromosomes());
+    fresh.immigrate(population.getFittestChromosomes(kept));
+    this.responses++;
+    this.reset();
+    return fresh;
+  }
+
+  /**
+   * Count the responses so far.
+   *
+   * @return number of times the population was replaced.
+   */
+  public int getResponses() {
+
+    return this.responses;
+  }
+
+  public Response getResponse() {
+
+    return this.response;
+  }
+
+  @Override
+  public String toString() {
+
+    var when = new ArrayList<String>();
+    if (this.patience > 0) when.add("after " + this.patience + " generations without improvement");
+    if (this.minDiversity > 0)
+      when.add(String.format("below %.0f%% distinct chromosomes", this.minDiversity * 100));
+    return this.response + " " + String.join(" or ", when);
+  }
+}
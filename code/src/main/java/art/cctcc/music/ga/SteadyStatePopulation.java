@@ -0,0 +1,224 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.apache.commons.math3.genetics.Chromosome;
+import org.apache.commons.math3.genetics.ChromosomePair;
+
+/**
+ * Population evolving in place, where each offspring replaces a chromosome as soon as it is bred
+ * instead of waiting for the next generation.
+ *
+ * <p>Chromosomes keep their slot until replaced. The slots are kept in an ordered set by fitness,
+ * updated in O(log n) per replacement, so the least fit, the fittest and the elite are read off
+ * without sorting, and the fitness of each slot is updated in place for tournaments.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class SteadyStatePopulation extends MyPopulation {
+
+  /** Which chromosome an offspring replaces. */
+  public enum Replacement {
+    /** The least fit chromosome, whatever the fitness of the offspring. */
+    WORST,
+    /**
+     * The less fit of its parents still in the population, if the offspring is at least as fit.
+     */
+    PARENT
+  }
+
+  private final Replacement replacement;
+
+  private double[] fitness = new double[0];
+
+  /** Slots in ascending order of fitness, the later first among equals. */
+  private final TreeSet<Integer> order =
+      new TreeSet<>(
+          (a, b) -> {
+            var c = Double.compare(this.fitness[a], this.fitness[b]);
+            return c != 0 ? c : Integer.compare(b, a);
+          });
+
+  /**
+   * Slots of each chromosome, for finding the parents of an offspring. The same chromosome may be
+   * held in several slots, e.g. when carried over as elite and also selected.
+   */
+  private final Map<Chromosome, int[]> slots = new IdentityHashMap<>();
+
+  /**
+   * Take over the chromosomes of a population in their order.
+   *
+   * @param population population to evolve in place.
+   * @param replacement which chromosome an offspring replaces.
+   */
+  public SteadyStatePopulation(MyPopulation population, Replacement replacement) {
+
+    super(population.getPopulationLimit(), population.getElitismRate());
+    this.replacement = replacement;
+    this.addChromosomes(population.getChromosomes());
+  }
+
+  @Override
+  public void addChromosome(Chromosome chromosome) {
+
+    super.addChromosome(chromosome);
+    this.index(this.getPopulationSize() - 1);
+  }
+
+  @Override
+  public void addChromosomes(Collection<Chromosome> chromosomeColl) {
+
+    BatchEvaluation.evaluate(chromosomeColl);
+    chromosomeColl.forEach(this::addChromosome);
+  }
+
+  private void index(int slot) {
+
+    if (slot >= this.fitness.length)
+      this.fitness = Arrays.copyOf(this.fitness, Math.max(slot + 1, 2 * this.fitness.length));
+    var chromosome = this.getChromosomeList().get(slot);
+    this.fitness[slot] = chromosome.getFitness();
+    this.order.add(slot);
+    var held = this.slots.get(chromosome);
+    if (held == null) held = new int[] {slot};
+    else {
+      held = Arrays.copyOf(held, held.length + 1);
+      held[held.length - 1] = slot;
+    }
+    this.slots.put(chromosome, held);
+  }
+
+  private void unindex(int slot) {
+
+    var chromosome = this.getChromosomeList().get(slot);
+    var held = this.slots.get(chromosome);
+    if (held.length == 1) {
+      this.slots.remove(chromosome);
+      return;
+    }
+    var rest = new int[held.length - 1];
+    var j = 0;
+    for (var s : held) if (s != slot) rest[j++] = s;
+    this.slots.put(chromosome, rest);
+  }
+
+  /**
+   * Find the least fit slot holding a chromosome.
+   *
+   * @param chromosome chromosome to look up.
+   * @return slot index, or null if the chromosome is not in this population.
+   */
+  private Integer leastFit(Chromosome chromosome) {
+
+    var held = this.slots.get(chromosome);
+    if (held == null) return null;
+    var least = held[0];
+    for (var s : held) if (this.order.comparator().compare(s, least) < 0) least = s;
+    return least;
+  }
+
+  private void replace(int slot, Chromosome chromosome) {
+
+    this.order.remove(slot);
+    this.unindex(slot);
+    var removed = this.getChromosomeList().get(slot);
+    this.getChromosomeList().set(slot, chromosome);
+    this.replaced(removed, chromosome);
+    this.index(slot);
+  }
+
+  /**
+   * Insert an offspring as set by the replacement policy.
+   *
+   * @param offspring evaluated offspring.
+   * @param parents chromosomes of this population the offspring was bred from.
+   * @return true if the offspring replaced a chromosome.
+   */
+  public boolean insert(Chromosome offspring, ChromosomePair parents) {
+
+    var slot =
+        switch (this.replacement) {
+          case WORST -> this.order.first();
+          case PARENT -> {
+            var first = this.leastFit(parents.getFirst());
+            var second = this.leastFit(parents.getSecond());
+            var lessFit =
+                first == null
+                    ? second
+                    : second == null || this.order.comparator().compare(first, second) <= 0
+                        ? first
+                        : second;
+            yield lessFit != null && offspring.getFitness() >= this.fitness[lessFit]
+                ? lessFit
+                : null;
+          }
+        };
+    if (slot == null) return false;
+    this.replace(slot, offspring);
+    return true;
+  }
+
+  /** Evolve in place: the next generation is this population. */
+  @Override
+  public SteadyStatePopulation nextGeneration() {
+
+    return this;
+  }
+
+  /** Replace the least fit chromosomes with migrants. */
+  @Override
+  public void immigrate(List<Chromosome> migrants) {
+
+    BatchEvaluation.evaluate(migrants);
+    var leastFit = this.order.stream().limit(migrants.size()).toList();
+    for (int i = 0; i < leastFit.size(); i++) this.replace(leastFit.get(i), migrants.get(i));
+  }
+
+  /**
+   * Get the fitness of each slot, updated in place as chromosomes are replaced.
+   *
+   * @return shared array in the order of chromosomes, not to be modified.
+   */
+  @Override
+  public double[] getFitnesses() {
+
+    if (this.fitness.length != this.getPopulationSize())
+      this.fitness = Arrays.copyOf(this.fitness, this.getPopulationSize());
+    return this.fitness;
+  }
+
+  @Override
+  public List<Chromosome> getFittestChromosomes(int count) {
+
+    var fittest = new ArrayList<Chromosome>(count);
+    var chromosomes = this.getChromosomeList();
+    for (var it = this.order.descendingIterator(); it.hasNext() && fittest.size() < count; )
+      fittest.add(chromosomes.get(it.next()));
+    return fittest;
+  }
+
+  public Replacement getReplacement() {
+
+    return this.replacement;
+  }
+}
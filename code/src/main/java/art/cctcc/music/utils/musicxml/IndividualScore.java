@@ -89,10 +89,10 @@ public class IndividualScore {
     score_partwise.setPartList(part_list);
 
     var parts =
-        IntStream.range(0, Individual.VOICE.length())
+        IntStream.range(0, idv.getVoice().length())
             .mapToObj(
                 i -> {
-                  var voice = Individual.VOICE.charAt(i);
+                  var voice = idv.getVoice().charAt(i);
                   var clef =
                       switch (voice) {
                         case 'S' -> XmlClef.G2;
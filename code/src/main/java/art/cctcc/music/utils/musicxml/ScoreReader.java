@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.utils.musicxml;
+
+import art.cctcc.music.ga.Individual;
+import art.cctcc.music.ga.Pitch;
+import art.cctcc.music.ga.RunContext;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Reader of scores written by {@link IndividualScore} or {@link StreamingScore} back into
+ * individuals, pulling the part names and pitches out of a stream of XML events without building
+ * a document. The DTD is not loaded.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class ScoreReader {
+
+  private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+
+  static {
+    FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+  }
+
+  /**
+   * Read a score into an individual of the voicing recorded in its part names.
+   *
+   * @param file MusicXML file.
+   * @param contexts run context of each voicing, e.g. <code>"SATB"</code>.
+   * @return individual of the score.
+   * @throws IOException if the file cannot be read or is not a score of an individual.
+   */
+  public static Individual read(Path file, Function<String, RunContext> contexts)
+      throws IOException {
+
+    var voice = new StringBuilder();
+    var melodies = new ArrayList<List<Integer>>();
+    try {
+      // scores are small, reading at once is cheaper than buffering the stream
+      var reader =
+          FACTORY.createXMLStreamReader(new ByteArrayInputStream(Files.readAllBytes(file)));
+      try {
+        List<Integer> melody = null;
+        String step = null;
+        while (reader.hasNext())
+          if (reader.next() == XMLStreamConstants.START_ELEMENT)
+            switch (reader.getLocalName()) {
+              case "part-name" -> voice.append(reader.getElementText().trim());
+              case "part" -> melodies.add(melody = new ArrayList<>());
+              case "step" -> step = reader.getElementText().trim();
+              case "octave" -> melody.add(pitch(step, reader.getElementText().trim()));
+            }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException | IllegalArgumentException | NullPointerException ex) {
+      throw new IOException("ScoreReader: Unexpected score " + file, ex);
+    }
+
+    var chord_no = melodies.isEmpty() ? 0 : melodies.get(0).size();
+    if (voice.length() != melodies.size()
+        || chord_no == 0
+        || melodies.stream().anyMatch(m -> m.size() != chord_no))
+      throw new IOException("ScoreReader: Parts do not match voicing " + voice + " in " + file);
+    var representation = new ArrayList<Integer>(voice.length() * chord_no);
+    for (int pos = 0; pos < chord_no; pos++)
+      for (var melody : melodies) representation.add(melody.get(pos));
+    try {
+      return new Individual(contexts.apply(voice.toString()), representation);
+    } catch (IllegalArgumentException ex) { // InvalidRepresentationException included
+      throw new IOException("ScoreReader: Invalid individual in " + file, ex);
+    }
+  }
+
+  private static int pitch(String step, String octave) {
+
+    return Pitch.valueOf(step + octave).ordinal();
+  }
+}
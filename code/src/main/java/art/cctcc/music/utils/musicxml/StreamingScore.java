@@ -0,0 +1,309 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.utils.musicxml;
+
+import art.cctcc.music.ga.Individual;
+import art.cctcc.music.ga.Pitch;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * MusicXML writer streaming the score of an {@link Individual} element by element, as an
+ * alternative to {@link IndividualScore}, which builds a JAXB object graph and needs a JAXB
+ * context initialised first. The output holds the same elements as that of {@link
+ * IndividualScore}.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+public class StreamingScore {
+
+  private static final XMLOutputFactory FACTORY = XMLOutputFactory.newFactory();
+
+  private static final String DOCTYPE =
+      "<!DOCTYPE score-partwise PUBLIC \"-//Recordare//DTD MusicXML 4.0.2 Partwise//EN\""
+          + " \"http://www.musicxml.org/dtds/partwise.dtd\">";
+  /** Version written by ProxyMusic 4.0.2 for {@link IndividualScore}. */
+  private static final String VERSION = "4.0.2";
+
+  private static final String TIME_SYMBOL = "cut";
+  private static final int CF_DURATION = 4;
+  private static final String INSTRUMENT_NAME = "Church Organ";
+  private static final int MIDI_PROGRAM = 20;
+
+  private static final String BEAT_UNIT = "whole";
+  private static final Integer PER_MINUTE = 52;
+
+  private static final int INDENTATION = 2;
+
+  private final String title;
+  private final String subtitle;
+  private final String composer;
+  private final List<XmlPart> parts;
+
+  private XMLStreamWriter writer;
+  private int depth;
+  /** Whether the innermost open element has child elements, so its end tag goes on a new line. */
+  private boolean nested;
+
+  public StreamingScore(String title, String subtitle, String composer, Individual idv) {
+
+    this.title = title;
+    this.subtitle = subtitle;
+    this.composer = composer;
+    this.parts =
+        IntStream.range(0, idv.getVoice().length())
+            .mapToObj(
+                i -> {
+                  var voice = idv.getVoice().charAt(i);
+                  var clef =
+                      switch (voice) {
+                        case 'S' -> XmlClef.G2;
+                        case 'A' -> XmlClef.C3;
+                        case 'T' -> XmlClef.C4;
+                        case 'B' -> XmlClef.F4;
+                        default -> null;
+                      };
+                  return new XmlPart("P" + (i + 1), "" + voice, "" + voice, clef, idv.getMelody(i));
+                })
+            .toList();
+  }
+
+  public void writeMusicXML(Path folder, String filename) {
+
+    try {
+      Files.createDirectories(folder);
+      try (var os = new BufferedOutputStream(Files.newOutputStream(folder.resolve(filename)))) {
+        this.write(os);
+      }
+    } catch (XMLStreamException | IOException ex) {
+      Logger.getLogger(StreamingScore.class.getName())
+          .log(java.util.logging.Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Write the score as an indented MusicXML document encoded in UTF-8.
+   *
+   * @param os stream to write to, left open.
+   * @throws XMLStreamException if the document cannot be written.
+   */
+  public synchronized void write(OutputStream os) throws XMLStreamException {
+
+    this.writer = FACTORY.createXMLStreamWriter(os, "UTF-8");
+    this.depth = 0;
+    this.nested = true;
+    try {
+      writer.writeStartDocument("UTF-8", "1.0");
+      this.newLine();
+      writer.writeDTD(DOCTYPE);
+      this.start("score-partwise", "version", VERSION);
+
+      this.start("work");
+      this.leaf("work-number", this.subtitle);
+      this.leaf("work-title", this.title);
+      this.end();
+
+      this.start("identification");
+      this.leaf("creator", "type", "composer", this.composer);
+      this.start("encoding");
+      this.leaf("encoding-date", LocalDate.now(ZoneOffset.UTC).toString());
+      this.end();
+      this.end();
+
+      this.writePartList();
+      for (var part : this.parts) this.writePart(part);
+
+      this.end();
+      this.newLine();
+      writer.writeEndDocument();
+      writer.flush();
+    } finally {
+      writer.close();
+      this.writer = null;
+    }
+  }
+
+  private void writePartList() throws XMLStreamException {
+
+    this.start("part-list");
+    this.start("part-group", "number", "1", "type", "start");
+    this.leaf("group-symbol", "bracket");
+    this.leaf("group-barline", "yes");
+    this.end();
+
+    for (var part : this.parts) {
+      var inst_id = part.getId() + "-" + part.getId().replace("P", "I");
+      this.start("score-part", "id", part.getId());
+      this.leaf("part-name", part.getPart_name());
+      this.start("part-name-display");
+      this.leaf("display-text", "font-size", "10", part.getPart_name().replace("-", "\n"));
+      this.end();
+      this.leaf("part-abbreviation", part.getPart_abbreviation());
+      this.start("part-abbreviation-display");
+      this.leaf("display-text", "font-size", "10", part.getPart_abbreviation());
+      this.end();
+      this.start("score-instrument", "id", inst_id);
+      this.leaf("instrument-name", INSTRUMENT_NAME);
+      this.end();
+      this.start("midi-instrument", "id", inst_id);
+      this.leaf("midi-channel", part.getId().replace("P", ""));
+      this.leaf("midi-program", String.valueOf(MIDI_PROGRAM));
+      this.end();
+      this.end();
+    }
+
+    this.empty("part-group", "number", "1", "type", "stop");
+    this.end();
+  }
+
+  private void writePart(XmlPart part) throws XMLStreamException {
+
+    var melody = part.getMelody();
+    var clef = part.getClef();
+    var bar = melody.size();
+    this.start("part", "id", part.getId());
+    for (int i = 0; i < bar; i++) {
+      var measure_no = i + 1;
+      this.start("measure", "number", String.valueOf(measure_no));
+
+      if (measure_no == 1) {
+        this.start("attributes");
+        // indicates how many divisions per quarter note are used to indicate a note's duration.
+        this.leaf("divisions", "1");
+        this.start("key");
+        this.leaf("fifths", "0");
+        this.end();
+        this.start("time", "symbol", TIME_SYMBOL);
+        this.leaf("beats", "2");
+        this.leaf("beat-type", "2");
+        this.end();
+        this.start("clef");
+        this.leaf("sign", clef.getSign().name());
+        this.leaf("line", String.valueOf(clef.getLine()));
+        if (clef.getClefOctaveChange() != 0)
+          this.leaf("clef-octave-change", String.valueOf(clef.getClefOctaveChange()));
+        this.end();
+        this.end();
+
+        if ("P1".equals(part.getId())) {
+          this.start("direction");
+          this.start("direction-type");
+          this.start("metronome");
+          this.leaf("beat-unit", BEAT_UNIT);
+          this.leaf("per-minute", PER_MINUTE.toString());
+          this.end();
+          this.end();
+          this.end();
+        }
+      }
+
+      var vl_pitch = Pitch.values()[melody.get(i)];
+      var tie_stop = i > 0 && melody.get(i - 1).equals(melody.get(i));
+      var tie_start = i + 1 < bar && melody.get(i + 1).equals(melody.get(i));
+      this.start("note");
+      this.start("pitch");
+      this.leaf("step", vl_pitch.getStep());
+      this.leaf("octave", String.valueOf(vl_pitch.getOctave()));
+      this.end();
+      this.leaf("duration", String.valueOf(CF_DURATION));
+      if (tie_stop) this.empty("tie", "type", "stop");
+      if (tie_start) this.empty("tie", "type", "start");
+      this.leaf("type", "whole");
+      if (tie_stop || tie_start || measure_no == bar) {
+        this.start("notations");
+        if (tie_stop) this.empty("tied", "type", "stop");
+        if (tie_start) this.empty("tied", "type", "start");
+        if (measure_no == bar) {
+          if ("P2".equals(part.getId()))
+            this.empty("fermata", "type", "inverted", "default-y", "-65");
+          else this.empty("fermata", "type", "upright", "default-y", "5");
+        }
+        this.end();
+      } else this.empty("notations");
+      this.end();
+
+      this.start("barline", "location", "right");
+      this.leaf("bar-style", measure_no == bar ? "light-light" : "none");
+      this.end();
+      this.end();
+    }
+    this.end();
+  }
+
+  private void newLine() throws XMLStreamException {
+
+    this.writer.writeCharacters("\n" + " ".repeat(this.depth * INDENTATION));
+  }
+
+  private void start(String name, String... attributes) throws XMLStreamException {
+
+    this.newLine();
+    this.writer.writeStartElement(name);
+    this.attributes(attributes);
+    this.depth++;
+    this.nested = false;
+  }
+
+  private void end() throws XMLStreamException {
+
+    this.depth--;
+    if (this.nested) this.newLine();
+    this.writer.writeEndElement();
+    this.nested = true;
+  }
+
+  private void empty(String name, String... attributes) throws XMLStreamException {
+
+    this.newLine();
+    this.writer.writeEmptyElement(name);
+    this.attributes(attributes);
+    this.nested = true;
+  }
+
+  /**
+   * Write an element of text content.
+   *
+   * @param name element name.
+   * @param content attribute names and values in turn, then the text.
+   */
+  private void leaf(String name, String... content) throws XMLStreamException {
+
+    this.newLine();
+    this.writer.writeStartElement(name);
+    for (int i = 0; i + 1 < content.length; i += 2)
+      this.writer.writeAttribute(content[i], content[i + 1]);
+    this.writer.writeCharacters(content[content.length - 1]);
+    this.writer.writeEndElement();
+    this.nested = true;
+  }
+
+  private void attributes(String... attributes) throws XMLStreamException {
+
+    for (int i = 0; i + 1 < attributes.length; i += 2)
+      this.writer.writeAttribute(attributes[i], attributes[i + 1]);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link BatchKernels} on the lanes of the JDK Vector API. Only compiled by the <code>vector</code>
+ * profile of the build, and only loaded when the JVM runs with <code>
+ * --add-modules jdk.incubator.vector</code>. Lanes left over by the vector length are counted by
+ * {@link BatchKernels.Scalar}.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+final class VectorKernels implements BatchKernels {
+
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  /** Remainder of non-negative values below 2<sup>13</sup> divided by 7, without division. */
+  private static IntVector mod7(IntVector v) {
+
+    return v.sub(v.mul(9363).lanewise(VectorOperators.LSHR, 16).mul(7));
+  }
+
+  @Override
+  public void parallels(
+      int[] p1, int[] p2, int[] m1, int[] m2, boolean isOuters, int[] counts, int from, int to) {
+
+    var i = from;
+    for (var bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+      var prev1 = IntVector.fromArray(SPECIES, p1, i);
+      var prev2 = IntVector.fromArray(SPECIES, p2, i);
+      var curr1 = IntVector.fromArray(SPECIES, m1, i);
+      var curr2 = IntVector.fromArray(SPECIES, m2, i);
+      var s1 = mod7(curr1);
+      var s2 = mod7(curr2);
+      var tritone = s1.eq(3).and(s2.eq(6)).or(s1.eq(6).and(s2.eq(3)));
+      var currItvl = mod7(curr2.sub(curr1).abs());
+      var prevItvl = mod7(prev2.sub(prev1).abs());
+      var motion = curr2.sub(prev2).mul(curr1.sub(prev1));
+      var parallel = prevItvl.eq(currItvl).and(motion.compare(VectorOperators.NE, 0));
+      if (isOuters) parallel = parallel.or(motion.compare(VectorOperators.GT, 0));
+      parallel = parallel.and(currItvl.eq(0).or(currItvl.eq(4))).andNot(tritone);
+      IntVector.fromArray(SPECIES, counts, i).add(1, parallel).intoArray(counts, i);
+    }
+    BatchKernels.Scalar.INSTANCE.parallels(p1, p2, m1, m2, isOuters, counts, i, to);
+  }
+
+  @Override
+  public void outerVoices(
+      int[][] columns, int offset, String voice, int[] counts, int from, int to) {
+
+    var n = voice.length();
+    var i = from;
+    for (var bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+      var top = IntVector.fromArray(SPECIES, columns[offset], i);
+      var bottom = top;
+      for (int v = 1; v < n; v++) {
+        var note = IntVector.fromArray(SPECIES, columns[offset + v], i);
+        top = top.max(note);
+        bottom = bottom.min(note);
+      }
+      var count = IntVector.fromArray(SPECIES, counts, i);
+      for (int v = 0; v < n; v++)
+        if (voice.charAt(v) == 'S' || voice.charAt(v) == 'B') {
+          var note = IntVector.fromArray(SPECIES, columns[offset + v], i);
+          count =
+              count.add(1, note.compare(VectorOperators.NE, voice.charAt(v) == 'S' ? top : bottom));
+        }
+      count.intoArray(counts, i);
+    }
+    BatchKernels.Scalar.INSTANCE.outerVoices(columns, offset, voice, counts, i, to);
+  }
+}
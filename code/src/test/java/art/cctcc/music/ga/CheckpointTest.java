@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Populations written to a {@link Checkpoint} file, read back and restored.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+class CheckpointTest {
+
+  private static final double ELITISM_RATE = 0.2;
+
+  @TempDir Path folder;
+
+  @Test
+  void testRoundTrip() throws IOException {
+
+    var context = FitnessTermsTest.context("SATB");
+    var random = new SplittableRandom(8);
+    // islands of different limits, as if stagnation grew one and shrank the other
+    var populations =
+        List.of(population(context, 40, 30, random), population(context, 5, 5, random));
+    var generations = new int[] {120, 97};
+    var file = this.folder.resolve("run.ckpt");
+    Checkpoint.of(100, 42L, 1234L, 17, generations, populations).write(file);
+    assertFalse(Files.exists(this.folder.resolve("run.ckpt.tmp")));
+
+    var checkpoint = Checkpoint.read(file);
+    assertEquals("SATB", checkpoint.getVoice());
+    assertEquals(8, checkpoint.getChordNumber());
+    assertEquals(100, checkpoint.getPopulationLimit());
+    assertEquals(42L, checkpoint.getSeed());
+    assertEquals(1234L, checkpoint.getTimestamp());
+    assertEquals(17, checkpoint.getLogLines());
+    assertEquals(populations.size(), checkpoint.getIslands());
+    for (int k = 0; k < populations.size(); k++) {
+      assertEquals(generations[k], checkpoint.getGenerationsEvolved(k));
+      var expected = populations.get(k);
+      var restored = checkpoint.restore(k, context, ELITISM_RATE);
+      assertEquals(expected.getPopulationLimit(), restored.getPopulationLimit());
+      assertEquals(expected.getChromosomes(), restored.getChromosomes());
+      assertArrayEquals(expected.getFitnesses(), restored.getFitnesses());
+    }
+  }
+
+  @Test
+  void testChangedEvaluations() throws IOException {
+
+    var context = FitnessTermsTest.context("SATB");
+    var population = population(context, 10, 10, new SplittableRandom(9));
+    var file = this.folder.resolve("run.ckpt");
+    Checkpoint.of(10, 1L, 1L, 0, new int[] {1}, List.of(population)).write(file);
+    var fewer =
+        new RunContext(
+            "SATB",
+            List.of(Evaluation.MelodicSmoothness),
+            new RandomContext(1),
+            new FitnessCache(0));
+    assertThrows(IOException.class, () -> Checkpoint.read(file).restore(0, fewer, ELITISM_RATE));
+  }
+
+  @Test
+  void testInvalidFile() throws IOException {
+
+    var file = this.folder.resolve("run.ckpt");
+    Files.write(file, new byte[] {1, 2, 3});
+    assertThrows(IOException.class, () -> Checkpoint.read(file));
+  }
+
+  private static MyPopulation population(
+      RunContext context, int limit, int size, SplittableRandom random) {
+
+    var population = new MyPopulation(limit, ELITISM_RATE);
+    for (int i = 0; i < size; i++)
+      population.addChromosome(FitnessTermsTest.individual(context, 8, random));
+    return population;
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import static art.cctcc.music.Settings.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link ChordTable} against the chord tests of {@link Pitch} as they were computed on pitch
+ * names, for every chord of up to 3 notes in every order and of 4 notes from the bottom up.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+class ChordTableTest {
+
+  private static final int NOTES = 4;
+
+  @Test
+  void testChordTests() {
+
+    for (var chord : chords()) {
+      var key = ChordTable.key(chord);
+      assertEquals(getPitchSet(chord), ChordTable.getPitchSet(key), () -> "pitch set " + chord);
+      assertEquals(getNumbers(chord), ChordTable.getNumbers(key), () -> "numbers " + chord);
+      assertEquals(getRoot(chord), ChordTable.getRoot(key), () -> "root " + chord);
+      assertEquals(triadChordTest(chord), ChordTable.triadChordTest(key), () -> "triad " + chord);
+      assertEquals(
+          seventhChordTest(chord), ChordTable.seventhChordTest(key), () -> "seventh " + chord);
+      assertEquals(
+          isRootPosition(chord), ChordTable.isRootPosition(key), () -> "root position " + chord);
+      if (getRoot(chord) != 'X')
+        assertEquals(
+            locateSeventhNote(chord), Pitch.locateSeventhNote(chord), () -> "sevenths " + chord);
+    }
+  }
+
+  @Test
+  void testKeyOfGenes() {
+
+    for (var chord : chords()) {
+      var genes = new int[chord.size() + 2];
+      for (int i = 0; i < chord.size(); i++) genes[i + 1] = chord.get(i);
+      assertEquals(ChordTable.key(chord), ChordTable.key(genes, 1, chord.size()));
+    }
+  }
+
+  private static List<List<Integer>> chords() {
+
+    var chords = new ArrayList<List<Integer>>();
+    var pitches = Pitch.values().length;
+    for (int n = 1; n <= NOTES; n++) {
+      var count = (int) Math.pow(pitches, n);
+      for (int c = 0; c < count; c++) {
+        var chord = new ArrayList<Integer>(n);
+        for (int i = 0, rest = c; i < n; i++, rest /= pitches) chord.add(rest % pitches);
+        if (n < NOTES || chord.equals(chord.stream().sorted().toList()))
+          chords.add(List.copyOf(chord));
+      }
+    }
+    return chords;
+  }
+
+  private static Set<String> getPitchSet(List<Integer> ords) {
+
+    return Set.copyOf(Pitch.translateO2P(ords).stream().map(Pitch::getStep).toList());
+  }
+
+  private static Set<Integer> getNumbers(List<Integer> ords) {
+
+    return Set.copyOf(
+        ords.stream()
+            .map(ord -> (ord - Pitch.getBottom(ords)) % 7 + 1)
+            .filter(n -> n > 1)
+            .toList());
+  }
+
+  private static char getRoot(List<Integer> ords) {
+
+    var pitches = Pitch.translateO2P(ords);
+    for (var pitch : pitches) {
+      var chord = SEVENTHS.stream().filter(c -> c.startsWith(pitch.getStep())).findFirst().get();
+      if (pitches.stream().map(Pitch::getStep).allMatch(chord::contains)) return chord.charAt(0);
+    }
+    return 'X';
+  }
+
+  private static char triadChordTest(List<Integer> ords) {
+
+    if (getPitchSet(ords).equals(Set.of("B", "D", "F"))) return 'X';
+    var nset = getNumbers(ords);
+    if (!nset.equals(Set.of(5, 3))
+        && !nset.equals(Set.of(3))
+        && !nset.equals(Set.of(6, 3))
+        && !nset.equals(Set.of(6, 4))) return 'X';
+    return getRoot(ords);
+  }
+
+  private static char seventhChordTest(List<Integer> ords) {
+
+    if (Set.of("B", "D", "F").equals(getPitchSet(ords))) return 'B';
+    var nset = getNumbers(ords);
+    if (!nset.equals(Set.of(7, 5, 3))
+        && !nset.equals(Set.of(7, 3))
+        && !nset.equals(Set.of(6, 5, 3))
+        && !nset.equals(Set.of(6, 5))
+        && !nset.equals(Set.of(6, 4, 3))
+        && !nset.equals(Set.of(6, 4, 2))
+        && !nset.equals(Set.of(4, 2))) return 'X';
+    return Character.toLowerCase(getRoot(ords));
+  }
+
+  private static boolean isRootPosition(List<Integer> ords) {
+
+    var numbers = getNumbers(ords);
+    if (Set.of("B", "D", "F").equals(getPitchSet(ords))) return numbers.equals(Set.of(6, 3));
+    return numbers.contains(3) && Set.of(7, 5, 3).containsAll(numbers);
+  }
+
+  private static List<Integer> locateSeventhNote(List<Integer> ords) {
+
+    var root = "" + getRoot(ords);
+    var seventh =
+        getPitchSet(ords).equals(Set.of("B", "D", "F"))
+            ? "F"
+            : "" + SEVENTHS.stream().filter(c -> c.startsWith(root)).findAny().get().charAt(3);
+    var chord = Pitch.translateO2P(ords);
+    return IntStream.range(0, ords.size())
+        .filter(i -> chord.get(i).getStep().equals(seventh))
+        .boxed()
+        .toList();
+  }
+}
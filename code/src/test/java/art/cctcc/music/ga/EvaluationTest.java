@@ -0,0 +1,76 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Counts of each rule on the whole chromosome against the totals of its terms per chord position,
+ * and against columns counted in blocks by {@link BatchEvaluation}.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+class EvaluationTest {
+
+  private static final List<String> VOICES = List.of("S", "BS", "SATB", "SAATTB", "SSAATTBB");
+  private static final int[] CHORDS = {1, 2, 3, 8, 17};
+  private static final int TRIALS = 100;
+
+  @Test
+  void testCountOfTerms() {
+
+    var random = new SplittableRandom(3);
+    for (var voice : VOICES)
+      for (var chords : CHORDS) {
+        var context = FitnessTermsTest.context(voice);
+        for (int t = 0; t < TRIALS; t++) {
+          var idv = FitnessTermsTest.individual(context, chords, random);
+          for (var eval : Evaluation.values()) {
+            var width = eval.getTermWidth(voice);
+            var terms = new int[chords * width];
+            for (int pos = 0; pos < chords; pos++)
+              eval.computeTerms(idv.genes(), voice, chords, pos, terms, pos * width);
+            var totals = new int[width];
+            for (int i = 0; i < terms.length; i++) totals[i % width] += terms[i];
+            assertEquals(eval.count(idv), eval.count(totals, 0, voice), () -> eval + " " + idv);
+          }
+        }
+      }
+  }
+
+  @Test
+  void testBatchedCount() {
+
+    var random = new SplittableRandom(4);
+    for (var voice : VOICES)
+      for (var chords : CHORDS) {
+        var context = FitnessTermsTest.context(voice);
+        var block = new ArrayList<Individual>();
+        for (int t = 0; t < TRIALS; t++)
+          block.add(FitnessTermsTest.individual(context, chords, random));
+        for (var eval : Evaluation.values()) {
+          var counts = BatchEvaluation.count(eval, block);
+          for (int i = 0; i < counts.length; i++)
+            assertEquals(eval.count(block.get(i)), counts[i]);
+        }
+      }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Terms derived from a parent's, by {@link FitnessTerms#patch} and {@link FitnessTerms#splice},
+ * against terms computed afresh by {@link FitnessTerms#of(Individual)}.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+class FitnessTermsTest {
+
+  private static final List<String> VOICES = List.of("S", "BS", "SATB", "SAATTB");
+  private static final int[] CHORDS = {1, 2, 3, 8, 17};
+  private static final int TRIALS = 50;
+
+  @Test
+  void testPatch() {
+
+    var random = new SplittableRandom(1);
+    for (var voice : VOICES)
+      for (var chords : CHORDS) {
+        var context = context(voice);
+        for (int t = 0; t < TRIALS; t++) {
+          var parent = individual(context, chords, random);
+          var other = Individual.getRandomChromosome(voice, chords, random);
+          var changed = random.ints(1 + random.nextInt(3), 0, chords).toArray();
+          var genes = parent.genes().clone();
+          for (var c : changed)
+            System.arraycopy(other, c * voice.length(), genes, c * voice.length(), voice.length());
+          var child = new Individual(context, genes);
+          assertSame(FitnessTerms.of(child), FitnessTerms.of(parent).patch(child, changed));
+        }
+      }
+  }
+
+  @Test
+  void testSplice() {
+
+    var random = new SplittableRandom(2);
+    for (var voice : VOICES)
+      for (var chords : CHORDS) {
+        var context = context(voice);
+        for (int t = 0; t < TRIALS; t++) {
+          var head = individual(context, chords, random);
+          var tail = individual(context, chords, random);
+          var locus = random.nextInt(chords + 1);
+          var genes = tail.genes().clone();
+          System.arraycopy(head.genes(), 0, genes, 0, locus * voice.length());
+          var child = new Individual(context, genes);
+          assertSame(
+              FitnessTerms.of(child),
+              FitnessTerms.splice(child, FitnessTerms.of(head), FitnessTerms.of(tail), locus));
+        }
+      }
+  }
+
+  static RunContext context(String voice) {
+
+    return new RunContext(
+        voice, List.of(Evaluation.values()), new RandomContext(1), new FitnessCache(0));
+  }
+
+  static Individual individual(RunContext context, int chords, SplittableRandom random) {
+
+    return new Individual(
+        context,
+        random.nextBoolean()
+            ? Individual.getRandomChromosome(context.getVoice(), chords, random)
+            : Individual.getRandomWalkChromosome(context.getVoice(), chords, random));
+  }
+
+  private static void assertSame(FitnessTerms expected, FitnessTerms actual) {
+
+    assertArrayEquals(expected.rows(), actual.rows());
+    for (int e = 0; e < Evaluation.values().length; e++)
+      assertEquals(expected.count(e), actual.count(e));
+    assertEquals(expected.fitness(), actual.fitness());
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2024 Jonathan Chang, Chun-yien <ccy@musicapoetica.org>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package art.cctcc.music.ga;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.apache.commons.math3.genetics.Chromosome;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Genomes packed into a {@link GenomeArena} against the individuals they were packed from.
+ *
+ * @author Jonathan Chang, Chun-yien <ccy@musicapoetica.org>
+ */
+class GenomeArenaTest {
+
+  /** Voicings of one and of several words per chord. */
+  private static final List<String> VOICES = List.of("S", "SATB", "SSAATTBB", "SATB".repeat(6));
+  private static final int[] CHORDS = {1, 2, 17};
+  private static final int CAPACITY = 60;
+
+  @Test
+  void testRoundTrip() {
+
+    var random = new SplittableRandom(5);
+    for (var backing : GenomeArena.Backing.values())
+      for (var voice : VOICES)
+        for (var chords : CHORDS) {
+          var context = FitnessTermsTest.context(voice);
+          var individuals = individuals(context, chords, random);
+          var arena = new GenomeArena(context, chords, CAPACITY, backing);
+          for (var idv : individuals) arena.add(idv);
+          assertEquals(individuals.size(), arena.size());
+          for (int slot = 0; slot < arena.size(); slot++) {
+            var idv = individuals.get(slot);
+            assertArrayEquals(idv.genes(), arena.getGenes(slot));
+            assertEquals(idv.getKey(), arena.getKey(slot));
+            assertEquals(idv.getFitness(), arena.getFitness(slot));
+            for (var eval : Evaluation.values())
+              assertEquals(eval.count(idv), arena.getCount(slot, eval.ordinal()));
+            var unpacked = arena.get(slot);
+            assertEquals(idv, unpacked);
+            assertEquals(idv.getFitness(), unpacked.getFitness());
+            assertTrue(arena.contains(idv));
+          }
+        }
+  }
+
+  @Test
+  void testCopy() {
+
+    var random = new SplittableRandom(6);
+    for (var voice : VOICES) {
+      var context = FitnessTermsTest.context(voice);
+      var individuals = individuals(context, 17, random);
+      var arena = new GenomeArena(context, 17, CAPACITY, GenomeArena.Backing.HEAP);
+      var target = new GenomeArena(context, 17, CAPACITY, GenomeArena.Backing.DIRECT);
+      for (var idv : individuals) arena.add(idv);
+      for (int slot = arena.size() - 1; slot >= 0; slot--) arena.copy(slot, target);
+      for (int slot = 0; slot < target.size(); slot++) {
+        var from = arena.size() - 1 - slot;
+        assertArrayEquals(arena.getGenes(from), target.getGenes(slot));
+        assertEquals(arena.getKey(from), target.getKey(slot));
+        assertEquals(arena.getFitness(from), target.getFitness(slot));
+        assertArrayEquals(arena.getTerms(from).rows(), target.getTerms(slot).rows());
+      }
+      assertEquals(arena.getDistinct(), target.getDistinct());
+    }
+  }
+
+  @Test
+  void testDuplicatesAndDiversity() {
+
+    var random = new SplittableRandom(7);
+    for (var voice : VOICES)
+      for (var chords : CHORDS) {
+        var context = FitnessTermsTest.context(voice);
+        var individuals = individuals(context, chords, random);
+        var arena = new GenomeArena(context, chords, CAPACITY, GenomeArena.Backing.HEAP);
+        for (var idv : individuals) arena.add(idv);
+        var expected = Diversity.of(new ArrayList<Chromosome>(individuals));
+        var actual = arena.getDiversity();
+        assertEquals(expected.unique(), arena.getDistinct());
+        assertEquals(expected.unique(), actual.unique());
+        assertArrayEquals(expected.entropy(), actual.entropy());
+        var absent = FitnessTermsTest.individual(context, chords, random);
+        assertEquals(individuals.contains(absent), arena.contains(absent));
+        arena.clear();
+        assertEquals(0, arena.getDistinct());
+        assertFalse(arena.contains(individuals.get(0)));
+      }
+  }
+
+  /** Individuals with copies, both of the same instance and of equal genes. */
+  private static List<Individual> individuals(
+      RunContext context, int chords, SplittableRandom random) {
+
+    var individuals = new ArrayList<Individual>();
+    while (individuals.size() < CAPACITY) {
+      var idv = FitnessTermsTest.individual(context, chords, random);
+      individuals.add(idv);
+      if (random.nextInt(4) == 0) individuals.add(idv);
+      if (random.nextInt(4) == 0) individuals.add(new Individual(context, idv.genes().clone()));
+    }
+    return individuals.subList(0, CAPACITY);
+  }
+}